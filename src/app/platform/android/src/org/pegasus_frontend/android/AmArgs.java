@@ -0,0 +1,61 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+
+// Handling of the `am start` options that are not part of the intent.
+final class AmArgs {
+    private AmArgs() {}
+
+    // The serial number of the user profile the app belongs to, see App.userSerial().
+    // NOTE: this is not the same as `--user`, which takes a user id, so it has to be
+    //       removed before the rest of the arguments reach IntentHelper
+    public static final String USER_SERIAL_OPTION = "--pegasus-user-serial";
+
+
+    // The native side passes the arguments after "am", so they may begin with "start"
+    public static void removeStartCommand(LinkedList<String> args) {
+        if (!args.isEmpty() && "start".equalsIgnoreCase(args.peekFirst()))
+            args.removeFirst();
+    }
+
+    // If any of the names is followed by a number, removes both and returns the number.
+    // Returns null if the option is not present. Throws if the value is not a number,
+    // in which case the arguments are left unchanged.
+    public static Long takeNumberOption(LinkedList<String> args, String... names) throws NumberFormatException {
+        final ListIterator<String> it = args.listIterator();
+        while (it.hasNext()) {
+            if (!Arrays.asList(names).contains(it.next()))
+                continue;
+            if (!it.hasNext())
+                return null;
+
+            final long value = Long.parseLong(it.next());
+            it.remove();
+            it.previous();
+            it.remove();
+            return value;
+        }
+        return null;
+    }
+}
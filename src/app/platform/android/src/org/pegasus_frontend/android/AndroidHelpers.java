@@ -3,18 +3,34 @@ package org.pegasus_frontend.android;
 import android.app.Activity;
 import android.app.ActivityOptions;
 import android.app.Service;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.LauncherApps;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
 import android.hardware.display.DisplayManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.os.UserManager;
 import android.util.Log;
 import android.view.Display;
 
 import org.qtproject.qt5.android.QtNative;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 public final class AndroidHelpers {
     private static final String TAG = "AndroidHelpers";
@@ -31,144 +47,386 @@ public final class AndroidHelpers {
     /* ===================== 工具：从 am 参数中提取 --display N ===================== */
     /** 如果存在 --display N（或 -display N），返回该 N，并**从参数列表中移除这两个 token**；否则返回 null。 */
     private static Integer extractDisplayIdFromArgs(LinkedList<String> args) {
+        Long id = extractNumberOptionFromArgs(args, "--display", "-display");
+        return id != null ? Integer.valueOf(id.intValue()) : null;
+    }
+
+    /* ===================== 工具：从 am 参数中提取 --pegasus-user-serial N ===================== */
+    /** 与 --display 相同；这里的 N 是用户的序列号（App.userSerial()），不是 --user 的用户 ID。 */
+    static Long extractUserSerialFromArgs(LinkedList<String> args) {
+        return extractNumberOptionFromArgs(args, AmArgs.USER_SERIAL_OPTION);
+    }
+
+    /** 通用版本：names 中任一开关后面跟一个数字；数值无效时忽略该开关。 */
+    private static Long extractNumberOptionFromArgs(LinkedList<String> args, String... names) {
         if (args == null) return null;
-        ListIterator<String> it = args.listIterator();
-        while (it.hasNext()) {
-            String tok = it.next();
-            if ("--display".equals(tok) || "-display".equals(tok)) {
-                if (it.hasNext()) {
-                    String val = it.next();
-                    try {
-                        int id = Integer.parseInt(val);
-                        // 移除这两个 token
-                        it.remove();                // 移除数值
-                        // 回到前一个元素的位置，删除 "--display"
-                        int pos = it.previousIndex();
-                        if (pos >= 0) {
-                            args.remove(pos);       // 移除开关
-                        }
-                        return id;
-                    } catch (NumberFormatException e) {
-                        Log.w(TAG, "Bad --display value: " + val);
-                        return null;
-                    }
-                }
-                return null;
-            }
+        try {
+            return AmArgs.takeNumberOption(args, names);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Bad " + Arrays.toString(names) + " value: " + e.getMessage());
+            return null;
         }
-        return null;
     }
 
-    /* ===================== 工具：选择最佳显示器 ===================== */
+    /* ===================== 显示器规划 ===================== */
     /**
-     * 优先级：
-     * 1) 如果 preferredDisplayId 非空，且当前存在该显示器 -> 使用它；
-     * 2) 如果系统存在多个显示器 -> 选择第一个「非主屏」的显示器；
-     * 3) 其他情况 -> 使用主屏（displays[0]）。
+     * 显示器列表由 DisplayListener 在变化时更新，每个包最近一次成功启动的显示器保存在
+     * SharedPreferences 中，所以每次启动的选择不必再枚举显示器。规则见 DisplayPlanner。
      */
-    private static int chooseBestDisplayId(Context ctx, Integer preferredDisplayId) {
-    DisplayManager dm = (DisplayManager) ctx.getSystemService(Context.DISPLAY_SERVICE);
-    Display[] displays = (dm != null) ? dm.getDisplays() : new Display[0];
+    private static final String DISPLAY_AFFINITY_PREFS = "display_affinity";
+    private static DisplayPlanner m_display_planner;
+    private static SharedPreferences m_display_affinity_prefs;
+
+    private static synchronized DisplayPlanner displayPlanner(Context ctx) {
+        if (m_display_planner != null) return m_display_planner;
+
+        final DisplayPlanner planner = new DisplayPlanner();
+        final Context appCtx = ctx.getApplicationContext();
 
-    if (displays.length == 0) {
-        Log.w(TAG, "No displays reported by DisplayManager; fallback to 0");
-        return 0;
+        m_display_affinity_prefs = appCtx.getSharedPreferences(DISPLAY_AFFINITY_PREFS, Context.MODE_PRIVATE);
+        HashMap<String, DisplayPlanner.Affinity> affinities = new HashMap<>();
+        for (Map.Entry<String, ?> entry : m_display_affinity_prefs.getAll().entrySet()) {
+            DisplayPlanner.Affinity affinity = parseDisplayAffinity(entry.getValue());
+            if (affinity != null) affinities.put(entry.getKey(), affinity);
+        }
+        planner.loadAffinities(affinities);
+
+        final DisplayManager dm = (DisplayManager) appCtx.getSystemService(Context.DISPLAY_SERVICE);
+        if (dm != null) {
+            // 只在系统报告变化时重新枚举
+            dm.registerDisplayListener(new DisplayManager.DisplayListener() {
+                @Override public void onDisplayAdded(int displayId) { planner.setDisplayIds(queryDisplayIds(dm)); }
+                @Override public void onDisplayRemoved(int displayId) { planner.setDisplayIds(queryDisplayIds(dm)); }
+                @Override public void onDisplayChanged(int displayId) {}
+            }, new Handler(Looper.getMainLooper()));
+            planner.setDisplayIds(queryDisplayIds(dm));
+        }
+
+        m_display_planner = planner;
+        return planner;
     }
 
-    int currentDisplayId = 0;
-    // 获取当前 context 所在的 display（API 17+）
-    try {
-        Display current = ctx.getDisplay();
-        if (current != null) currentDisplayId = current.getDisplayId();
-    } catch (Throwable ignored) {}
+    private static int[] queryDisplayIds(DisplayManager dm) {
+        Display[] displays = dm.getDisplays();
+        int[] ids = new int[displays.length];
+        for (int i = 0; i < displays.length; i++) {
+            ids[i] = displays[i].getDisplayId();
+            Log.d(TAG, "Display id=" + ids[i] + " name=" + displays[i].getName());
+        }
+        return ids;
+    }
 
-    // 打印调试信息
-    for (Display d : displays) {
-        Log.d(TAG, "Display id=" + d.getDisplayId() + " name=" + d.getName());
+    /** 把亲和关系写回 SharedPreferences（异步写入，数量有上限）。值为 "<显示器> <启动序号>"。 */
+    private static void saveDisplayAffinities(DisplayPlanner planner) {
+        SharedPreferences.Editor editor = m_display_affinity_prefs.edit().clear();
+        for (Map.Entry<String, DisplayPlanner.Affinity> entry : planner.affinities().entrySet()) {
+            DisplayPlanner.Affinity affinity = entry.getValue();
+            editor.putString(entry.getKey(), affinity.displayId + " " + affinity.sequence);
+        }
+        editor.apply();
     }
 
-    // 1) 如果显式给了 --display N 且存在，就优先用
-    if (preferredDisplayId != null) {
-        for (Display d : displays) {
-            if (d.getDisplayId() == preferredDisplayId) return preferredDisplayId;
+    /** 解析保存的亲和关系；旧版本只保存了显示器（Integer），序号按 0 处理。无效时返回 null。 */
+    private static DisplayPlanner.Affinity parseDisplayAffinity(Object value) {
+        if (value instanceof Integer) return new DisplayPlanner.Affinity((Integer) value, 0);
+        if (!(value instanceof String)) return null;
+
+        String[] parts = ((String) value).split(" ");
+        if (parts.length != 2) return null;
+        try {
+            return new DisplayPlanner.Affinity(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            return null;
         }
-        Log.w(TAG, "Preferred displayId not found: " + preferredDisplayId);
     }
 
-    // 2) 若有多个屏幕，优先选一个 != 当前屏幕 的显示器
-    if (displays.length > 1) {
-        for (Display d : displays) {
-            if (d.getDisplayId() != currentDisplayId) {
-                Log.i(TAG, "Switching display from " + currentDisplayId + " to " + d.getDisplayId());
-                return d.getDisplayId();
-            }
+    /** 启动完成后调用：成功时记住所用的显示器，在指定显示器上失败时忘掉之前的记录。 */
+    private static void onLaunchFinished(Context ctx, PreparedLaunch launch, Integer usedDisplayId) {
+        if (launch.packageName == null || launch.displayId == null) return;
+
+        DisplayPlanner planner = displayPlanner(ctx);
+        boolean changed = true;
+        if (usedDisplayId != null) {
+            planner.onLaunched(launch.packageName, usedDisplayId);
+        } else {
+            changed = planner.onLaunchFailed(launch.packageName);
         }
+        if (changed) saveDisplayAffinities(planner);
     }
 
-    // 3) 否则仍在当前屏幕启动
-    return currentDisplayId;
-}
+    /* ===================== 工具：选择最佳显示器 ===================== */
+    /** 选择规则见 DisplayPlanner；录制 trace 时同时记录输入与结果。 */
+    private static int chooseBestDisplayId(Context ctx, String packageName, Integer preferredDisplayId) {
+        DisplayPlanner planner = displayPlanner(ctx);
+        int[] displayIds = planner.displayIds();
+        if (displayIds.length == 0) {
+            Log.w(TAG, "No displays reported by DisplayManager; fallback to 0");
+            return 0;
+        }
 
-    /* ===================== 启动：自动选择显示器并启动 Activity ===================== */
-    private static void startActivityAutoDisplay(Context ctx, Intent intent, Integer preferredDisplayId) {
-        // Service 上下文需要 NEW_TASK
-        if (!(ctx instanceof Activity)) {
-            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        int currentDisplayId = 0;
+        // 获取当前 context 所在的 display（API 17+）
+        try {
+            Display current = ctx.getDisplay();
+            if (current != null) currentDisplayId = current.getDisplayId();
+        } catch (Throwable ignored) {}
+
+        Integer affinityDisplayId = planner.affinity(packageName);
+        int chosen = DisplayPlanner.chooseDisplayId(displayIds, currentDisplayId, preferredDisplayId, affinityDisplayId);
+        if (preferredDisplayId != null && chosen != preferredDisplayId) {
+            Log.w(TAG, "Preferred displayId not found: " + preferredDisplayId);
+        }
+        if (chosen != currentDisplayId) {
+            Log.i(TAG, "Switching display from " + currentDisplayId + " to " + chosen);
+        }
+
+        if (LaunchTrace.isRecording()) {
+            String[] fields = new String[6 + displayIds.length];
+            fields[0] = LaunchTrace.DISPLAYS;
+            fields[1] = packageName != null ? packageName : "";
+            fields[2] = String.valueOf(currentDisplayId);
+            fields[3] = preferredDisplayId != null ? String.valueOf(preferredDisplayId) : "-";
+            fields[4] = affinityDisplayId != null ? String.valueOf(affinityDisplayId) : "-";
+            fields[5] = String.valueOf(chosen);
+            for (int i = 0; i < displayIds.length; i++) fields[6 + i] = String.valueOf(displayIds[i]);
+            LaunchTrace.record(fields);
+        }
+        return chosen;
+    }
+
+    /* ===================== 启动：在准备好的显示器上启动 Activity ===================== */
+    /** 返回实际使用的显示器；未指定显示器或指定的显示器失败时返回 null。 */
+    private static Integer startPreparedLaunch(Context ctx, PreparedLaunch launch) {
+        if (launch.profile != null) {
+            startActivityInProfile(ctx, launch.intent, launch.profile);
+            return null;
         }
 
         // API < 26 无法设置 launch display，直接普通启动
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+        if (launch.displayId == null) {
             Log.i(TAG, "API < 26, start on default display");
-            ctx.startActivity(intent);
-            return;
+            ctx.startActivity(launch.intent);
+            return null;
         }
 
-        int targetDisplay = chooseBestDisplayId(ctx, preferredDisplayId);
-        Log.i(TAG, "Launching on display " + targetDisplay +
-                (preferredDisplayId != null ? " (preferred=" + preferredDisplayId + ")" : ""));
-
+        Log.i(TAG, "Launching on display " + launch.displayId);
         try {
             ActivityOptions opts = ActivityOptions.makeBasic();
             // API 26+ 可用
-            opts.setLaunchDisplayId(targetDisplay);
-            ctx.startActivity(intent, opts.toBundle());
+            opts.setLaunchDisplayId(launch.displayId);
+            ctx.startActivity(launch.intent, opts.toBundle());
+            return launch.displayId;
         } catch (Throwable t) {
             Log.w(TAG, "startActivity with display failed: " + t + " -> fallback to normal start");
-            ctx.startActivity(intent);
+            ctx.startActivity(launch.intent);
+            return null;
+        }
+    }
+
+    /* ===================== 工具：预先解析目标 Activity ===================== */
+    /** 隐式 Intent 解析到唯一的 Activity 时，直接写入组件名，启动时系统就不必再解析一次。 */
+    private static void resolveTargetActivity(Context ctx, Intent intent) {
+        if (intent.getComponent() != null) return;
+
+        ResolveInfo info = ctx.getPackageManager().resolveActivity(intent, PackageManager.MATCH_DEFAULT_ONLY);
+        if (info == null || info.activityInfo == null) return; // 找不到时交给 startActivity 报错
+
+        // 有多个候选且没有默认应用时，返回的是系统的选择器（包名为 android），保持原样
+        if ("android".equals(info.activityInfo.packageName)) return;
+
+        intent.setComponent(new ComponentName(info.activityInfo.packageName, info.activityInfo.name));
+    }
+
+    /* ===================== 工具：其他用户配置 ===================== */
+    /** 如果序列号属于另一个（当前可访问的）用户配置，返回它；否则返回 null。 */
+    private static UserHandle findOtherProfile(Context ctx, Long userSerial) {
+        if (userSerial == null) return null;
+
+        UserManager um = (UserManager) ctx.getSystemService(Context.USER_SERVICE);
+        if (um == null) return null;
+
+        UserHandle user = um.getUserForSerialNumber(userSerial);
+        if (user == null || user.equals(Process.myUserHandle())) return null;
+        if (!um.getUserProfiles().contains(user)) return null;
+        return user;
+    }
+
+    private static void startActivityInProfile(Context ctx, Intent intent, UserHandle user) {
+        ComponentName component = intent.getComponent();
+        if (component == null) {
+            throw new IllegalArgumentException("Apps of other profiles can only be started by component name (-n)");
+        }
+
+        Log.i(TAG, "Launching " + component.flattenToShortString() + " in profile " + user);
+        LauncherApps la = (LauncherApps) ctx.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        la.startMainActivity(component, user, null, null);
+    }
+
+    /* ===================== 准备好的启动 ===================== */
+    /**
+     * 解析好的 Intent、用户配置和显示器。前端在游戏获得焦点时就可以在后台准备，
+     * 用户确认启动时只剩下 startActivity。
+     */
+    private static final class PreparedLaunch {
+        final Intent intent;
+        final UserHandle profile;   // 其他用户配置；null 表示当前用户
+        final Integer displayId;    // null 表示不指定（API < 26）
+        final String packageName;   // 目标包名，用于显示器亲和；可能为 null
+
+        PreparedLaunch(Intent intent, UserHandle profile, Integer displayId, String packageName) {
+            this.intent = intent;
+            this.profile = profile;
+            this.displayId = displayId;
+            this.packageName = packageName;
+        }
+    }
+
+    /** 正在准备或已经准备好的启动，按参数匹配；超过有效期的丢弃。 */
+    private static final class PendingLaunch {
+        final String[] args;
+        final Future<PreparedLaunch> future;
+        final long createdAtMs;
+
+        PendingLaunch(String[] args, Future<PreparedLaunch> future) {
+            this.args = args;
+            this.future = future;
+            this.createdAtMs = SystemClock.elapsedRealtime();
+        }
+
+        boolean matches(String[] other) {
+            return Arrays.equals(args, other)
+                && SystemClock.elapsedRealtime() - createdAtMs < PREPARED_LAUNCH_TTL_MS;
+        }
+    }
+
+    // 显示器、已安装的应用等可能变化，所以准备结果只短时间有效
+    private static final long PREPARED_LAUNCH_TTL_MS = 30 * 1000;
+    private static final ExecutorService m_prepare_executor = Executors.newSingleThreadExecutor();
+    private static final AtomicReference<PendingLaunch> m_pending_launch = new AtomicReference<>();
+
+    /** ahead 为 true 表示在后台提前准备；立即启动时不值得多一次解析 Activity 的 IPC。 */
+    private static PreparedLaunch prepareLaunch(Context ctx, String[] args, boolean ahead) throws Exception {
+        // 1) 解析原始参数
+        LinkedList<String> list = new LinkedList<>(Arrays.asList(args));
+
+        // 1.1) 兼容：如果第一个 token 是 "start"，先剔除
+        AmArgs.removeStartCommand(list);
+
+        // 1.2) 先提取（并移除）--display N，如果有则优先用
+        Integer preferredDisplayId = extractDisplayIdFromArgs(list);
+
+        // 1.3) 提取（并移除）--pegasus-user-serial N，其他用户配置（如工作资料）中的应用需要通过 LauncherApps 启动
+        Long userSerial = extractUserSerialFromArgs(list);
+
+        // 2) 交给你现有的解析器把参数 → Intent
+        Intent intent = IntentHelper.parseIntentCommand(list);
+
+        UserHandle otherProfile = findOtherProfile(ctx, userSerial);
+        if (otherProfile != null) {
+            return new PreparedLaunch(intent, otherProfile, null, null);
+        }
+
+        // Service 上下文需要 NEW_TASK
+        if (!(ctx instanceof Activity)) {
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        }
+        if (ahead) {
+            resolveTargetActivity(ctx, intent);
+        }
+
+        // 3) 自动选择显示器（优先使用该包上次成功启动的显示器）
+        String packageName = intent.getComponent() != null
+            ? intent.getComponent().getPackageName()
+            : intent.getPackage();
+        Integer displayId = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            displayId = chooseBestDisplayId(ctx, packageName, preferredDisplayId);
+        }
+        return new PreparedLaunch(intent, null, displayId, packageName);
+    }
+
+    /* ===================== 外部入口：预先准备启动 ===================== */
+    /**
+     * 在后台准备 startActivityFromAmArgs(args) 的启动，之后用相同参数调用时直接使用结果。
+     * 只保留最近一次的准备，之前还没开始的准备会被取消。
+     */
+    public static void prepareActivityFromAmArgs(String[] args) {
+        PendingLaunch current = m_pending_launch.get();
+        if (current != null && current.matches(args)) return;
+
+        Context ctx = getQtContext();
+        if (ctx == null) return;
+
+        final String[] argsCopy = args.clone();
+        Future<PreparedLaunch> future = m_prepare_executor.submit(() -> {
+            final long metricsStart = Metrics.begin(Metrics.PREPARE_LAUNCH);
+            boolean success = false;
+            try {
+                PreparedLaunch launch = prepareLaunch(ctx, argsCopy, true);
+                success = true;
+                return launch;
+            } finally {
+                Metrics.end(Metrics.PREPARE_LAUNCH, metricsStart, success);
+            }
+        });
+        PendingLaunch previous = m_pending_launch.getAndSet(new PendingLaunch(argsCopy, future));
+        if (previous != null) previous.future.cancel(false);
+    }
+
+    /** 取出与参数匹配的准备结果（必要时等待其完成）；没有或已失效时返回 null。 */
+    private static PreparedLaunch takePreparedLaunch(String[] args) {
+        PendingLaunch pending = m_pending_launch.getAndSet(null);
+        if (pending == null || !pending.matches(args)) return null;
+
+        try {
+            return pending.future.get();
+        } catch (Exception ex) {
+            // 准备失败时重新走完整流程，以便返回正常的错误信息
+            return null;
         }
     }
 
     /* ===================== 外部入口：am 参数解析并启动 ===================== */
     /**
      * 把 `am start ...` 的参数在应用内解析为 Intent，并尽量在非主屏启动。
+     * 如果之前用相同参数调用过 prepareActivityFromAmArgs()，直接使用准备好的结果。
      * @param args 传入 "am","start" 之后的所有参数；如果不小心把 "start" 也传进来了，也会被自动忽略。
      * @return 空串表示成功；非空表示错误字符串（供上层回退到外部 am）
      */
     public static String startActivityFromAmArgs(String[] args) {
+        final long metricsStart = Metrics.begin(Metrics.START_ACTIVITY_FROM_AM_ARGS);
+        boolean success = false;
         try {
-            // 1) 解析原始参数
-            LinkedList<String> list = new LinkedList<>(Arrays.asList(args));
-
-            // 1.1) 兼容：如果第一个 token 是 "start"，先剔除
-            if (!list.isEmpty() && "start".equalsIgnoreCase(list.peekFirst())) {
-                list.removeFirst();
-            }
-
-            // 1.2) 先提取（并移除）--display N，如果有则优先用
-            Integer preferredDisplayId = extractDisplayIdFromArgs(list);
-
-            // 2) 交给你现有的解析器把参数 → Intent
-            Intent intent = IntentHelper.parseIntentCommand(list);
-
-            // 3) 自动选择显示器并启动
             Context ctx = getQtContext();
             if (ctx == null) return "No context available";
-            startActivityAutoDisplay(ctx, intent, preferredDisplayId);
 
+            PreparedLaunch launch = takePreparedLaunch(args);
+            if (launch != null) {
+                Log.i(TAG, "Using the prepared launch");
+            } else {
+                launch = prepareLaunch(ctx, args, false);
+            }
+
+            Integer usedDisplayId = startPreparedLaunch(ctx, launch);
+            onLaunchFinished(ctx, launch, usedDisplayId);
+            MainActivity.onLaunchStarted(usedDisplayId);
+            success = true;
             return ""; // 成功
         } catch (Throwable t) {
             Log.w(TAG, "startActivityFromAmArgs failed: " + t);
             return t.toString();
+        } finally {
+            Metrics.end(Metrics.START_ACTIVITY_FROM_AM_ARGS, metricsStart, success);
+            if (LaunchTrace.isRecording()) traceLaunch(args, System.nanoTime() - metricsStart, success);
         }
     }
+
+    private static void traceLaunch(String[] args, long elapsedNs, boolean success) {
+        String[] fields = new String[3 + args.length];
+        fields[0] = LaunchTrace.LAUNCH;
+        fields[1] = String.valueOf(elapsedNs);
+        fields[2] = success ? "1" : "0";
+        System.arraycopy(args, 0, fields, 3, args.length);
+        LaunchTrace.record(fields);
+    }
 }
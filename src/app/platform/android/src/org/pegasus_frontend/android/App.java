@@ -18,6 +18,7 @@
 package org.pegasus_frontend.android;
 
 import android.content.Intent;
+import android.content.pm.LauncherActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 
@@ -27,8 +28,10 @@ final class App {
     private final String m_app_name;
     private final String m_launch_action;
     private final String m_launch_component;
+    private final String m_icon_id;
+    private final long m_user_serial;
 
-    public App(PackageManager pm, ResolveInfo info) {
+    public App(PackageManager pm, ResolveInfo info, long userSerial) {
         m_package_name = info.activityInfo.packageName;
         m_app_name = info.loadLabel(pm).toString();
 
@@ -41,10 +44,43 @@ final class App {
             m_launch_action = "";
             m_launch_component = "";
         }
+
+        // NOTE: apps without an icon resource would all be rendered with
+        //       the same default icon, so they share a single ID
+        m_icon_id = info.activityInfo.getIconResource() == 0
+            ? MainActivity.DEFAULT_ICON_ID
+            : MainActivity.iconId(m_package_name);
+        m_user_serial = userSerial;
+    }
+
+    public App(LauncherActivityInfo info, long userSerial) {
+        m_package_name = info.getComponentName().getPackageName();
+        m_app_name = info.getLabel().toString();
+        m_launch_action = Intent.ACTION_MAIN;
+        m_launch_component = info.getComponentName().flattenToShortString();
+        m_icon_id = info.getIconResource() == 0
+            ? MainActivity.DEFAULT_ICON_ID
+            : MainActivity.iconId(m_package_name);
+        m_user_serial = userSerial;
+    }
+
+    // Entry of a saved app list, see AppSnapshot. The icon hash is 0 if it's not known.
+    public App(String packageName, String appName, String launchAction, String launchComponent,
+               boolean hasIcon, long iconHash, long userSerial) {
+        m_package_name = packageName;
+        m_app_name = appName;
+        m_launch_action = launchAction;
+        m_launch_component = launchComponent;
+        m_icon_id = hasIcon
+            ? MainActivity.iconId(m_package_name, iconHash)
+            : MainActivity.DEFAULT_ICON_ID;
+        m_user_serial = userSerial;
     }
 
     public String packageName() { return m_package_name; }
     public String appName() { return m_app_name; }
     public String launchAction() { return m_launch_action; }
     public String launchComponent() { return m_launch_component; }
+    public String iconId() { return m_icon_id; }
+    public long userSerial() { return m_user_serial; }
 }
@@ -0,0 +1,96 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.pegasus_frontend.android;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.UserManager;
+import android.util.Log;
+import java.io.File;
+
+
+// Compares the two sources of the app list on the device: LauncherApps, and the
+// PackageManager fallback used when that is not available (see MainActivity.appList()),
+// together with the icon lookup each of them comes with (see MainActivity.encodeAppIcon()).
+// It is started the same way as IconBenchmark, with an empty file called
+// `benchmark_app_list` in the app's external files directory, and writes its results
+// to the log and to an `app-list-benchmark-<time>.txt` file there.
+// The benchmark uses its own LauncherAppsSource, so the lists and icons the app itself
+// has loaded are not touched, and it doesn't go through the metrics of the helpers.
+// The icons are looked up for every app of the list, and only loaded, not encoded.
+final class AppListBenchmark {
+    private static final String TAG = "AppListBenchmark";
+    public static final String REQUEST_FILE_NAME = "benchmark_app_list";
+
+    private static final int LIST_ROUNDS = 10;
+    private static final int ICON_ROUNDS = 3;
+
+
+    private AppListBenchmark() {}
+
+
+    public static void startIfRequested(Context ctx, File dir) {
+        if (dir == null || !new File(dir, REQUEST_FILE_NAME).isFile())
+            return;
+
+        final Thread thread = new Thread(() -> run(ctx, dir), TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+
+    private static void run(Context ctx, File dir) {
+        final LauncherAppsSource source = LauncherAppsSource.createUnwatched(ctx);
+        if (source == null) {
+            Log.w(TAG, "LauncherApps is not available, nothing to compare");
+            return;
+        }
+
+        final PackageManager pm = ctx.getPackageManager();
+        final ActivityManager am = (ActivityManager) ctx.getSystemService(Context.ACTIVITY_SERVICE);
+        final UserManager um = (UserManager) ctx.getSystemService(Context.USER_SERVICE);
+        final int density = am.getLauncherLargeIconDensity();
+        final long user_serial = um.getSerialNumberForUser(Process.myUserHandle());
+
+        final String launcher_list_result = IconBenchmark.measure("LauncherApps list", 1, LIST_ROUNDS, source::appList);
+        final String pm_list_result = IconBenchmark.measure("PackageManager list", 1, LIST_ROUNDS,
+            () -> MainActivity.appListFromPackageManager(pm, user_serial));
+
+        // NOTE: appList() also fills the activities the icons are looked up from,
+        //       same as in the app, where the list is loaded before the icons
+        final App[] apps = source.appList();
+        final int count = apps.length;
+        final String launcher_icon_result = IconBenchmark.measure("LauncherApps icons", count, ICON_ROUNDS, () -> {
+            for (App app : apps)
+                source.icon(app.packageName(), density);
+        });
+        final String pm_icon_result = IconBenchmark.measure("PackageManager icons", count, ICON_ROUNDS, () -> {
+            for (App app : apps)
+                MainActivity.packageManagerIcon(pm, app.packageName(), density);
+        });
+
+        IconBenchmark.report(dir, "app-list-benchmark-",
+            count + " apps",
+            launcher_list_result,
+            pm_list_result,
+            launcher_icon_result,
+            pm_icon_result);
+    }
+}
@@ -0,0 +1,166 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.ChangedPackages;
+import android.os.Build;
+import android.provider.Settings;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+// The app list saved by the background index job (see IndexJobService), so the
+// next cold start doesn't have to enumerate the apps again. A snapshot is only
+// used if no package has changed since it was taken, which the system can tell
+// through PackageManager.getChangedPackages() (API 26+). The sequence numbers
+// of that start over at every boot, so the boot count is saved too.
+// The content hashes of the icons are saved too, so apps with identical icons
+// get the same icon ID before any of them was loaded (see MainActivity.iconId()).
+// NOTE: the change history only covers our own user profile, so snapshots
+//       with apps of other profiles should not be saved.
+final class AppSnapshot {
+    private static final String TAG = "AppSnapshot";
+    private static final String FILE_NAME = "app_snapshot.bin";
+    private static final int VERSION = 2;
+
+    // A point in the package change history
+    public static final class Position {
+        final int boot_count;
+        final int sequence;
+
+        private Position(int boot_count, int sequence) {
+            this.boot_count = boot_count;
+            this.sequence = sequence;
+        }
+    }
+
+
+    private AppSnapshot() {}
+
+
+    // Returns null if the change history is not available
+    public static Position currentPosition(Context ctx) {
+        if (Build.VERSION.SDK_INT < 26)
+            return null;
+
+        final int boot_count = bootCount(ctx.getContentResolver());
+        if (boot_count < 0)
+            return null;
+
+        // NOTE: null means no package has changed since the boot
+        final ChangedPackages changes = ctx.getPackageManager().getChangedPackages(0);
+        return new Position(boot_count, changes != null ? changes.getSequenceNumber() : 0);
+    }
+
+    // The position should be taken before the apps were listed,
+    // so changes made during the listing make the snapshot outdated.
+    // The icon hashes are in the order of the apps, 0 if not known.
+    public static void save(Context ctx, Position position, App[] apps, long[] iconHashes) {
+        final File file = snapshotFile(ctx);
+        final File temp = new File(file.getPath() + ".part");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(position.boot_count);
+            out.writeInt(position.sequence);
+            out.writeInt(apps.length);
+            for (int i = 0; i < apps.length; i++) {
+                final App app = apps[i];
+                out.writeUTF(app.packageName());
+                out.writeUTF(app.appName());
+                out.writeUTF(app.launchAction());
+                out.writeUTF(app.launchComponent());
+                out.writeBoolean(!MainActivity.DEFAULT_ICON_ID.equals(app.iconId()));
+                out.writeLong(iconHashes[i]);
+                out.writeLong(app.userSerial());
+            }
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Could not write " + file + ": " + ex);
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(file))
+            temp.delete();
+    }
+
+    // Returns null if there is no snapshot, or it is outdated
+    public static App[] load(Context ctx) {
+        final File file = snapshotFile(ctx);
+        if (!file.isFile())
+            return null;
+
+        final Position current = currentPosition(ctx);
+        if (current == null)
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION)
+                return null;
+
+            final int boot_count = in.readInt();
+            final int sequence = in.readInt();
+            if (boot_count != current.boot_count)
+                return null;
+            if (sequence != current.sequence && ctx.getPackageManager().getChangedPackages(sequence) != null)
+                return null;
+
+            final int count = in.readInt();
+            final App[] apps = new App[count];
+            for (int i = 0; i < count; i++) {
+                final String package_name = in.readUTF();
+                final String app_name = in.readUTF();
+                final String launch_action = in.readUTF();
+                final String launch_component = in.readUTF();
+                final boolean has_icon = in.readBoolean();
+                final long icon_hash = in.readLong();
+                final long user_serial = in.readLong();
+                apps[i] = new App(package_name, app_name, launch_action, launch_component, has_icon, icon_hash, user_serial);
+            }
+            return apps;
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Could not read " + file + ": " + ex);
+            return null;
+        }
+    }
+
+
+    private static File snapshotFile(Context ctx) {
+        return new File(ctx.getFilesDir(), FILE_NAME);
+    }
+
+    private static int bootCount(ContentResolver resolver) {
+        try {
+            return Settings.Global.getInt(resolver, Settings.Global.BOOT_COUNT);
+        }
+        catch (Settings.SettingNotFoundException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+
+// Usage of all apps known to the system at once, see UsageStatsSource.
+// The values of the Nth package are at 2N (foreground time) and 2N+1
+// (last time used), both in milliseconds, the latter since the epoch.
+final class AppUsage {
+    private final String[] m_packages;
+    private final long[] m_values;
+
+    public AppUsage(String[] packages, long[] values) {
+        m_packages = packages;
+        m_values = values;
+    }
+
+    public String[] packages() { return m_packages; }
+    public long[] values() { return m_values; }
+}
@@ -0,0 +1,146 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// Picks the display to launch on. In order of preference:
+// 1. the display requested with --display, if it exists;
+// 2. the display the package was last launched on successfully, if it exists;
+// 3. if there are multiple displays, the first one we're not on;
+// 4. otherwise the current display.
+// The list of displays is kept up to date by the caller when the system reports
+// a change, and the affinities are in a hash map, so a decision doesn't have to
+// query the system. The number of remembered packages is limited, the ones
+// launched least recently are dropped first. Every successful launch gets a
+// sequence number, which is saved with the affinity, so this order survives
+// restarts. Looking up an affinity (eg. when preparing a launch) doesn't count
+// as a use.
+// NOTE: this is plain Java, so it can also run outside of Android (see DisplayChoiceCheck)
+final class DisplayPlanner {
+    public static final int MAX_AFFINITIES = 256;
+
+    // The display of the last successful launch of a package, and when that was
+    public static final class Affinity {
+        public final int displayId;
+        public final long sequence;
+
+        public Affinity(int displayId, long sequence) {
+            this.displayId = displayId;
+            this.sequence = sequence;
+        }
+    }
+
+    private int[] m_display_ids = new int[0];
+    // In launch order, the oldest first
+    private final LinkedHashMap<String, Affinity> m_affinities = new LinkedHashMap<>();
+    private long m_last_sequence = 0;
+
+
+    public static int chooseDisplayId(int[] displayIds, int currentDisplayId, Integer requestedDisplayId, Integer affinityDisplayId) {
+        if (requestedDisplayId != null && contains(displayIds, requestedDisplayId))
+            return requestedDisplayId;
+
+        if (affinityDisplayId != null && contains(displayIds, affinityDisplayId))
+            return affinityDisplayId;
+
+        if (displayIds.length > 1) {
+            for (int id : displayIds) {
+                if (id != currentDisplayId)
+                    return id;
+            }
+        }
+
+        return currentDisplayId;
+    }
+
+
+    public synchronized void setDisplayIds(int[] displayIds) {
+        m_display_ids = displayIds.clone();
+    }
+
+    public synchronized int[] displayIds() {
+        return m_display_ids.clone();
+    }
+
+    // Adds saved affinities, in the order of their sequence numbers
+    public synchronized void loadAffinities(Map<String, Affinity> affinities) {
+        final List<Map.Entry<String, Affinity>> entries = new ArrayList<>(affinities.entrySet());
+        entries.addAll(m_affinities.entrySet());
+        Collections.sort(entries, (a, b) -> Long.compare(a.getValue().sequence, b.getValue().sequence));
+
+        m_affinities.clear();
+        for (Map.Entry<String, Affinity> entry : entries) {
+            m_affinities.put(entry.getKey(), entry.getValue());
+            m_last_sequence = Math.max(m_last_sequence, entry.getValue().sequence);
+        }
+        trimAffinities();
+    }
+
+    // Null if the package has no affinity
+    public synchronized Integer affinity(String packageName) {
+        final Affinity affinity = packageName != null ? m_affinities.get(packageName) : null;
+        return affinity != null ? Integer.valueOf(affinity.displayId) : null;
+    }
+
+    public synchronized int choose(String packageName, int currentDisplayId, Integer requestedDisplayId) {
+        return chooseDisplayId(m_display_ids, currentDisplayId, requestedDisplayId, affinity(packageName));
+    }
+
+    // Remembers the display and makes the package the most recently launched one.
+    // The affinities should be saved after this, as at least the order changes.
+    public synchronized void onLaunched(String packageName, int displayId) {
+        m_affinities.remove(packageName);
+        m_affinities.put(packageName, new Affinity(displayId, ++m_last_sequence));
+        trimAffinities();
+    }
+
+    // Returns true if there was an affinity
+    public synchronized boolean onLaunchFailed(String packageName) {
+        return m_affinities.remove(packageName) != null;
+    }
+
+    // In launch order, the oldest first
+    public synchronized Map<String, Affinity> affinities() {
+        return new LinkedHashMap<>(m_affinities);
+    }
+
+
+    private void trimAffinities() {
+        final Iterator<String> it = m_affinities.keySet().iterator();
+        while (m_affinities.size() > MAX_AFFINITIES && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int other : ids) {
+            if (other == id)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,106 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.pegasus_frontend.android;
+
+import android.view.Choreographer;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+// Paces the stick positions of gamepads to the display. Controllers commonly
+// report at several hundred Hz, but only the last position before a frame
+// matters for the UI. The positions themselves still come from QtGamepad,
+// already mapped (including the user's own mappings); the native side holds
+// them back until the next vsync, when this class tells it to forward
+// the latest values in one batch, see GamepadManagerQt.cpp.
+// The events are not consumed, Qt's own handling is unchanged.
+final class GamepadInput implements Choreographer.FrameCallback {
+    private static volatile GamepadInput m_instance;
+
+    private final Choreographer m_choreographer;
+    private final AtomicBoolean m_frame_requested = new AtomicBoolean(false);
+
+    // The oldest sample since the last frame, in uptimeMillis(); UI thread only
+    private long m_oldest_event_ms = Long.MAX_VALUE;
+
+
+    private GamepadInput() {
+        m_choreographer = Choreographer.getInstance();
+    }
+
+    // Must be called on the UI thread, as the Choreographer is per thread
+    public static GamepadInput create() {
+        if (m_instance == null)
+            m_instance = new GamepadInput();
+        return m_instance;
+    }
+
+
+    // Called by the native side when new stick positions are waiting, from
+    // the Qt thread. Returns false if there's no frame to wait for, in which
+    // case the values should be forwarded right away.
+    public static boolean requestFrame() {
+        final GamepadInput instance = m_instance;
+        if (instance == null || !NativeBridge.isRegistered())
+            return false;
+
+        instance.postFrame();
+        return true;
+    }
+
+    // Notes the time of the joystick samples in the event, and asks for
+    // the next frame early; the event itself is left for Qt
+    public void onMotionEvent(MotionEvent event) {
+        if (!NativeBridge.isRegistered())
+            return;
+        if (event.getActionMasked() != MotionEvent.ACTION_MOVE || !event.isFromSource(InputDevice.SOURCE_JOYSTICK))
+            return;
+
+        // NOTE: The samples batched into the event by the system are older than
+        //       its current values, and would be overwritten before the frame
+        //       anyway, so only the time of the oldest one is used, for the latency
+        final long event_ms = event.getHistorySize() > 0
+            ? event.getHistoricalEventTime(0)
+            : event.getEventTime();
+        m_oldest_event_ms = Math.min(m_oldest_event_ms, event_ms);
+
+        postFrame();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        m_frame_requested.set(false);
+        NativeBridge.gamepadFrame();
+
+        if (m_oldest_event_ms != Long.MAX_VALUE) {
+            // NOTE: Event times use the uptimeMillis() clock, which is the same
+            //       monotonic clock as nanoTime(), just in milliseconds
+            final long latency_ns = System.nanoTime() - m_oldest_event_ms * 1000000L;
+            Metrics.record(Metrics.GAMEPAD_AXES, latency_ns, true);
+            m_oldest_event_ms = Long.MAX_VALUE;
+        }
+    }
+
+
+    private void postFrame() {
+        // NOTE: Choreographer.postFrameCallback is safe to call from any thread
+        if (m_frame_requested.compareAndSet(false, true))
+            m_choreographer.postFrameCallback(this);
+    }
+}
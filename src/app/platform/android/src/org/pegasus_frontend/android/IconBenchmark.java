@@ -0,0 +1,155 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.pegasus_frontend.android;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.drawable.Drawable;
+import android.os.Debug;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+// Counts the Java allocations of the icon requests on the device, to check that
+// IconEncoder doesn't allocate in the steady state. It is started the same way as
+// the trace recording (see LaunchTrace): create an empty file called `benchmark_icons`
+// in the app's external files directory, and every start of the app runs the benchmark
+// once in the background, then writes the results to the log and to an
+// `icon-benchmark-<time>.txt` file there.
+// Two cases are measured, both after a warm-up round:
+//  - encoder: rasterizing and encoding already loaded drawables into a direct buffer
+//  - request: the work of an appIconInto() call, including the loading of the drawable
+//    (or the cached icon), which is expected to allocate. The benchmark runs while the
+//    app is in use, so it doesn't call appIconInto() itself, which would also count
+//    in the helper metrics and add to the icon IDs of the app.
+// NOTE: Debug.startAllocCounting() is deprecated, but still counts the allocations of
+//       the current thread. Native memory (eg. the pixels of new bitmaps) is not counted.
+final class IconBenchmark {
+    private static final String TAG = "IconBenchmark";
+    public static final String REQUEST_FILE_NAME = "benchmark_icons";
+
+    private static final int MAX_ICONS = 32;
+    private static final int ROUNDS = 10;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+
+    private IconBenchmark() {}
+
+
+    public static void startIfRequested(Context ctx, File dir) {
+        if (dir == null || !new File(dir, REQUEST_FILE_NAME).isFile())
+            return;
+
+        final Thread thread = new Thread(() -> run(ctx, dir), TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+
+    private static void run(Context ctx, File dir) {
+        final PackageManager pm = ctx.getPackageManager();
+        final Intent intent = new Intent(Intent.ACTION_MAIN, null);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+
+        final List<String> package_names = new ArrayList<>();
+        final List<Drawable> drawables = new ArrayList<>();
+        for (ResolveInfo info : pm.queryIntentActivities(intent, 0)) {
+            final Drawable drawable = info.loadIcon(pm);
+            if (drawable == null || package_names.contains(info.activityInfo.packageName))
+                continue;
+
+            package_names.add(info.activityInfo.packageName);
+            drawables.add(drawable);
+            if (package_names.size() == MAX_ICONS)
+                break;
+        }
+        if (package_names.isEmpty()) {
+            Log.w(TAG, "No app icons found");
+            return;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        final IconEncoder encoder = IconEncoder.forCurrentThread();
+        final int count = package_names.size();
+
+        final String encoder_result = measure("encoder", count, ROUNDS, () -> {
+            for (int i = 0; i < count; i++) {
+                encoder.encode(package_names.get(i), drawables.get(i));
+                encoder.copyResultTo(buffer);
+            }
+        });
+        final String request_result = measure("request", count, ROUNDS, () -> {
+            for (int i = 0; i < count; i++) {
+                MainActivity.loadAppIcon(encoder, package_names.get(i));
+                encoder.copyResultTo(buffer);
+            }
+        });
+
+        report(dir, "icon-benchmark-", encoder_result, request_result);
+    }
+
+    // Writes the results to the log, and to a new file in the directory
+    static void report(File dir, String file_prefix, String... results) {
+        for (String result : results)
+            Log.i(TAG, result);
+
+        final File file = new File(dir, file_prefix + System.currentTimeMillis() + ".txt");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            for (String result : results) {
+                out.write(result);
+                out.write('\n');
+            }
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Could not write " + file + ": " + ex);
+        }
+    }
+
+    // Runs the round once to warm up, then the given number of times while counting
+    // the allocations. The results are per call, where a round makes `count` calls.
+    static String measure(String name, int count, int rounds, Runnable round) {
+        round.run();
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        final long start_ns = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            round.run();
+        final long elapsed_ns = System.nanoTime() - start_ns;
+        Debug.stopAllocCounting();
+
+        final int calls = rounds * count;
+        return String.format(Locale.ROOT, "%s: %d calls, %.2f objects and %.0f bytes allocated, %.3f ms per call",
+            name, calls,
+            Debug.getThreadAllocCount() / (double) calls,
+            Debug.getThreadAllocSize() / (double) calls,
+            elapsed_ns / 1e6 / calls);
+    }
+}
@@ -0,0 +1,159 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+
+// App icons encoded by the background index job (see IndexJobService), so they
+// don't have to be rasterized and PNG-encoded again at the next start.
+// Every entry is tagged with the last update time of its package, and is only
+// used while that still matches. Entries are written one by one through
+// a temporary file, so an interrupted job only leaves complete ones behind.
+final class IconCache {
+    private static final String TAG = "IconCache";
+    private static final String DIR_NAME = "app_icons";
+    private static final String FILE_EXT = ".icon";
+    private static final int VERSION = 1;
+
+    private final File m_dir;
+
+
+    public IconCache(Context ctx) {
+        m_dir = new File(ctx.getCacheDir(), DIR_NAME);
+    }
+
+
+    // The version the cache entries are tagged with, or -1 if it's not known
+    // (eg. the package is only installed in another user profile)
+    public static long packageVersion(PackageManager pm, String packageName) {
+        try {
+            return pm.getPackageInfo(packageName, 0).lastUpdateTime;
+        }
+        catch (PackageManager.NameNotFoundException ex) {
+            return -1;
+        }
+    }
+
+
+    // True if there is an entry for any version of the package
+    public boolean contains(String packageName) {
+        return entryFile(packageName).isFile();
+    }
+
+    // The content hash of the cached icon (see IconEncoder.resultHash()), or 0 if there is no matching entry
+    public long hash(String packageName, long packageVersion) {
+        try (DataInputStream in = openEntry(packageName, packageVersion)) {
+            return in != null ? in.readLong() : 0;
+        }
+        catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    // Loads the icon as the result of the encoder, or returns false if there is no matching entry
+    public boolean load(String packageName, long packageVersion, IconEncoder encoder) {
+        try (DataInputStream in = openEntry(packageName, packageVersion)) {
+            if (in == null)
+                return false;
+
+            final long hash = in.readLong();
+            final int length = in.readInt();
+            encoder.load(packageName, hash, in, length);
+            return true;
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Could not read the cached icon of " + packageName + ": " + ex);
+            entryFile(packageName).delete();
+            return false;
+        }
+    }
+
+    // Saves the current result of the encoder
+    public void save(String packageName, long packageVersion, IconEncoder encoder) throws IOException {
+        m_dir.mkdirs();
+
+        final File file = entryFile(packageName);
+        final File temp = new File(file.getPath() + ".part");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(VERSION);
+            out.writeLong(packageVersion);
+            out.writeLong(encoder.resultHash());
+            out.writeInt(encoder.resultLength());
+            encoder.writeResultTo(out);
+        }
+        catch (IOException ex) {
+            temp.delete();
+            throw ex;
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp);
+        }
+    }
+
+    // Removes the entries of the packages not in the set
+    public void retainOnly(Set<String> packageNames) {
+        final File[] files = m_dir.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            final String name = file.getName();
+            final boolean keep = name.endsWith(FILE_EXT)
+                && packageNames.contains(name.substring(0, name.length() - FILE_EXT.length()));
+            if (!keep)
+                file.delete();
+        }
+    }
+
+
+    private File entryFile(String packageName) {
+        return new File(m_dir, packageName + FILE_EXT);
+    }
+
+    // Returns the stream positioned after the header, or null if there's no entry for this version
+    private DataInputStream openEntry(String packageName, long packageVersion) throws IOException {
+        if (packageVersion < 0)
+            return null;
+
+        final File file = entryFile(packageName);
+        if (!file.isFile())
+            return null;
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (in.readInt() != VERSION || in.readLong() != packageVersion) {
+            in.close();
+            return null;
+        }
+        return in;
+    }
+}
@@ -0,0 +1,196 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.pegasus_frontend.android;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+// Rasterizes and PNG-encodes icon drawables. Every thread gets its own
+// instance, which keeps the canvas, a few bitmaps and the encode buffer
+// between calls, so in the steady state no Java objects are created, apart from
+// the small working buffer of Bitmap.compress() (see IconBenchmark).
+final class IconEncoder {
+    // Icons usually come in one or two sizes, so a handful of slots is enough
+    private static final int BITMAP_POOL_SIZE = 4;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    // Size of the header written by copyResultTo()
+    public static final int RESULT_HEADER_SIZE = 8;
+
+    private static final ThreadLocal<IconEncoder> m_instances = new ThreadLocal<IconEncoder>() {
+        @Override
+        protected IconEncoder initialValue() {
+            return new IconEncoder();
+        }
+    };
+
+    // ByteArrayOutputStream that gives access to its buffer
+    private static final class EncodeBuffer extends ByteArrayOutputStream {
+        EncodeBuffer(int size) { super(size); }
+
+        byte[] data() { return buf; }
+        int length() { return count; }
+
+        void readFrom(DataInputStream in, int length) throws IOException {
+            if (buf.length < length)
+                buf = new byte[length];
+            in.readFully(buf, 0, length);
+            count = length;
+        }
+    }
+
+    private final Canvas m_canvas = new Canvas();
+    private final Bitmap[] m_bitmap_pool = new Bitmap[BITMAP_POOL_SIZE];
+    private int m_next_evicted = 0;
+    private final EncodeBuffer m_buffer = new EncodeBuffer(INITIAL_BUFFER_SIZE);
+    private String m_last_key = null;
+    private long m_last_hash = 0;
+    private long m_last_time_ms = 0;
+
+
+    private IconEncoder() {}
+
+    public static IconEncoder forCurrentThread() {
+        return m_instances.get();
+    }
+
+
+    // Encodes the drawable as PNG into the internal buffer, replacing the
+    // previous result. The key is only remembered, see hasResultFor().
+    public void encode(String key, Drawable drawable) {
+        m_last_key = null;
+        m_buffer.reset();
+
+        final Bitmap bitmap = rasterize(drawable);
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, m_buffer);
+        m_last_hash = contentHash(m_buffer.data(), m_buffer.length());
+        m_last_time_ms = System.currentTimeMillis();
+        m_last_key = key;
+    }
+
+    // Replaces the previous result with already encoded PNG data (eg. from IconCache)
+    public void load(String key, long hash, DataInputStream in, int length) throws IOException {
+        m_last_key = null;
+        m_buffer.reset();
+
+        m_buffer.readFrom(in, length);
+        m_last_hash = hash;
+        m_last_time_ms = System.currentTimeMillis();
+        m_last_key = key;
+    }
+
+    // True if the current buffer contents were encoded for this key,
+    // eg. when the caller retries with a larger output buffer.
+    // NOTE: the result may be outdated if the source of the icon (eg. the package)
+    //       has changed after resultTimeMs()
+    public boolean hasResultFor(String key) {
+        return m_last_key != null && m_last_key.equals(key);
+    }
+
+    // When the current result was encoded or loaded, in wall clock time
+    public long resultTimeMs() {
+        return m_last_time_ms;
+    }
+
+    public int resultLength() {
+        return m_buffer.length();
+    }
+
+    // Identical icons produce identical PNG data, so the hash of
+    // the encoded bytes can be used to find duplicates
+    public long resultHash() {
+        return m_last_hash;
+    }
+
+    // Copies the content hash (in native byte order) and the result to the start of the buffer,
+    // or returns false if it doesn't fit
+    public boolean copyResultTo(ByteBuffer out) {
+        out.clear();
+        if (out.capacity() < RESULT_HEADER_SIZE + m_buffer.length())
+            return false;
+
+        out.order(ByteOrder.nativeOrder());
+        out.putLong(m_last_hash);
+        out.put(m_buffer.data(), 0, m_buffer.length());
+        return true;
+    }
+
+    public byte[] resultToByteArray() {
+        return m_buffer.toByteArray();
+    }
+
+    public void writeResultTo(OutputStream out) throws IOException {
+        m_buffer.writeTo(out);
+    }
+
+
+    // 64 bit FNV-1a
+    private static long contentHash(byte[] data, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= data[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private Bitmap rasterize(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null)
+                return bitmap;
+        }
+
+        final int w = Math.max(1, drawable.getIntrinsicWidth());
+        final int h = Math.max(1, drawable.getIntrinsicHeight());
+
+        final Bitmap bitmap = pooledBitmap(w, h);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        m_canvas.setBitmap(bitmap);
+        drawable.setBounds(0, 0, w, h);
+        drawable.draw(m_canvas);
+        m_canvas.setBitmap(null);
+        return bitmap;
+    }
+
+    private Bitmap pooledBitmap(int w, int h) {
+        for (Bitmap bitmap : m_bitmap_pool) {
+            if (bitmap != null && bitmap.getWidth() == w && bitmap.getHeight() == h)
+                return bitmap;
+        }
+
+        final Bitmap evicted = m_bitmap_pool[m_next_evicted];
+        if (evicted != null)
+            evicted.recycle();
+
+        final Bitmap bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        m_bitmap_pool[m_next_evicted] = bitmap;
+        m_next_evicted = (m_next_evicted + 1) % BITMAP_POOL_SIZE;
+        return bitmap;
+    }
+}
@@ -0,0 +1,182 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+import android.app.ActivityManager;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.util.Log;
+import java.io.IOException;
+import java.util.HashSet;
+
+
+// Refreshes the app snapshot and the icon cache (see AppSnapshot and IconCache)
+// while the device is idle and charging, so the next cold start can load them
+// instead of asking the system again.
+// The system may stop the job at any time. Icons already cached for the current
+// version of their package are skipped, so the next run continues where the
+// previous one was interrupted.
+public class IndexJobService extends JobService {
+    private static final String TAG = "IndexJobService";
+    private static final int JOB_ID = 1;
+    private static final long PERIOD_MS = 24 * 60 * 60 * 1000L;
+
+    private volatile boolean m_stopped = false;
+
+
+    // Does nothing if the job is already scheduled
+    public static void schedule(Context ctx) {
+        final JobScheduler scheduler = (JobScheduler) ctx.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null)
+            return;
+
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID)
+                return;
+        }
+
+        final JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(ctx, IndexJobService.class))
+            .setRequiresDeviceIdle(true)
+            .setRequiresCharging(true)
+            .setPeriodic(PERIOD_MS)
+            .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS)
+            Log.w(TAG, "Could not schedule the background index job");
+    }
+
+
+    // NOTE: called on the main thread
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        m_stopped = false;
+        final Thread thread = new Thread(() -> {
+            try {
+                refresh();
+            }
+            catch (Exception ex) {
+                Log.w(TAG, "The background index job has failed: " + ex);
+            }
+            // NOTE: after onStopJob() the job is already over. Failures are
+            //       not rescheduled either, the next period will try again.
+            if (!m_stopped)
+                jobFinished(params, false);
+        }, "IndexJob");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return true;
+    }
+
+    // Returning true makes the system run the job again later
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        m_stopped = true;
+        return true;
+    }
+
+
+    private void refresh() {
+        final long start_ms = SystemClock.elapsedRealtime();
+        final Context ctx = getApplicationContext();
+
+        // NOTE: this thread has no Looper, and package changes are not needed here
+        final LauncherAppsSource source = LauncherAppsSource.createUnwatched(ctx);
+        if (source == null)
+            return;
+
+        try {
+            final AppSnapshot.Position position = AppSnapshot.currentPosition(ctx);
+            final App[] apps = source.appList();
+            if (m_stopped)
+                return;
+
+            final IconCache cache = new IconCache(ctx);
+            final PackageManager pm = ctx.getPackageManager();
+            final ActivityManager am = (ActivityManager) ctx.getSystemService(Context.ACTIVITY_SERVICE);
+            final int density = am.getLauncherLargeIconDensity();
+            final IconEncoder encoder = IconEncoder.forCurrentThread();
+
+            final HashSet<String> packages = new HashSet<>();
+            final long[] icon_hashes = new long[apps.length];
+            int encoded = 0;
+            for (int i = 0; i < apps.length && !m_stopped; i++) {
+                final String package_name = apps[i].packageName();
+                packages.add(package_name);
+                if (MainActivity.DEFAULT_ICON_ID.equals(apps[i].iconId()))
+                    continue;
+
+                final long version = IconCache.packageVersion(pm, package_name);
+                if (version < 0)
+                    continue;
+
+                icon_hashes[i] = cache.hash(package_name, version);
+                if (icon_hashes[i] != 0)
+                    continue;
+
+                final Drawable drawable = source.icon(package_name, density);
+                if (drawable == null)
+                    continue;
+
+                encoder.encode(package_name, drawable);
+                try {
+                    cache.save(package_name, version, encoder);
+                    icon_hashes[i] = encoder.resultHash();
+                    encoded++;
+                }
+                catch (IOException ex) {
+                    Log.w(TAG, "Could not cache the icon of " + package_name + ": " + ex);
+                }
+            }
+
+            // NOTE: saved even if the job was stopped, the missing icon hashes are just not known
+            if (position != null && allInOwnProfile(apps))
+                AppSnapshot.save(ctx, position, apps, icon_hashes);
+
+            if (m_stopped) {
+                Log.i(TAG, "Stopped after encoding " + encoded + " icons, will continue later");
+                return;
+            }
+            cache.retainOnly(packages);
+
+            final long elapsed_ms = SystemClock.elapsedRealtime() - start_ms;
+            Log.i(TAG, apps.length + " apps indexed, " + encoded + " icons encoded in " + elapsed_ms + " ms");
+        }
+        finally {
+            source.close();
+        }
+    }
+
+    private boolean allInOwnProfile(App[] apps) {
+        final UserManager user_man = (UserManager) getSystemService(Context.USER_SERVICE);
+        final long own_serial = user_man.getSerialNumberForUser(Process.myUserHandle());
+        for (App app : apps) {
+            if (app.userSerial() != own_serial)
+                return false;
+        }
+        return true;
+    }
+}
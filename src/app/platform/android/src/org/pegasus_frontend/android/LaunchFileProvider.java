@@ -17,7 +17,437 @@
 
 package org.pegasus_frontend.android;
 
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.text.TextUtils;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
 import androidx.core.content.FileProvider;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 
-public class LaunchFileProvider extends FileProvider {}
+// Besides regular files, this provider can also serve the members of ZIP
+// archives, without extracting the whole archive first. Member URIs look like
+// `content://<authority>/archive/<member path>?zip=<archive path>`.
+// Members are decompressed through a pipe and are also written to a cache,
+// from where later requests are served. The archive has to be under one of
+// the roots of the provider, same as the regular files.
+// Stored (uncompressed) members can also be returned as a part of the archive
+// file, without any copying, if the URI has `direct=1`. Such descriptors are
+// not whole files, so these URIs should only be given to apps known to open
+// them with openAssetFileDescriptor() or openInputStream(); openFileDescriptor()
+// refuses them.
+public class LaunchFileProvider extends FileProvider {
+    private static final String TAG = "LaunchFileProvider";
+    public static final String AUTHORITY = "org.pegasus_frontend.android.files";
+
+    private static final String ARCHIVE_SEGMENT = "archive";
+    private static final String ARCHIVE_PARAM = "zip";
+    private static final String DIRECT_PARAM = "direct";
+    private static final String CACHE_DIR_NAME = "archive_members";
+    private static final long CACHE_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+    private static final String[] DEFAULT_PROJECTION = { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+
+    // The members being decompressed, by cache file path
+    private final HashMap<String, Decompression> m_in_flight = new HashMap<>();
+
+
+    // If the member name is empty, the largest file of the archive is used
+    public static Uri archiveMemberUri(File archive, String memberName) throws IOException {
+        return archiveMemberUri(archive, memberName, false);
+    }
+
+    // With direct, stored members are served in place, see above
+    public static Uri archiveMemberUri(File archive, String memberName, boolean direct) throws IOException {
+        String member = memberName;
+        if (member == null || member.isEmpty()) {
+            ZipDirectory.Entry largest = null;
+            for (ZipDirectory.Entry entry : ZipDirectory.read(archive)) {
+                if (!entry.isDirectory() && (largest == null || entry.size > largest.size))
+                    largest = entry;
+            }
+            if (largest == null)
+                throw new FileNotFoundException("The archive " + archive + " has no files");
+            member = largest.name;
+        }
+
+        final Uri.Builder builder = new Uri.Builder()
+            .scheme("content")
+            .authority(AUTHORITY)
+            .appendPath(ARCHIVE_SEGMENT);
+        for (String segment : member.split("/"))
+            builder.appendPath(segment);
+        builder.appendQueryParameter(ARCHIVE_PARAM, archive.getAbsolutePath());
+        if (direct)
+            builder.appendQueryParameter(DIRECT_PARAM, "1");
+        return builder.build();
+    }
+
+
+    @Override
+    public AssetFileDescriptor openAssetFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!isArchiveUri(uri))
+            return super.openAssetFile(uri, mode);
+
+        if (!"r".equals(mode))
+            throw new FileNotFoundException("Archive members are read only");
+
+        final File archive = archiveOf(uri);
+        final ZipDirectory.Entry entry = findMember(archive, memberOf(uri));
+        if (entry.method == ZipDirectory.METHOD_STORED && "1".equals(uri.getQueryParameter(DIRECT_PARAM))) {
+            try {
+                final long offset = ZipDirectory.dataOffset(archive, entry);
+                final ParcelFileDescriptor pfd = ParcelFileDescriptor.open(archive, ParcelFileDescriptor.MODE_READ_ONLY);
+                return new AssetFileDescriptor(pfd, offset, entry.size);
+            }
+            catch (IOException ex) {
+                throw new FileNotFoundException("Could not open " + uri + ": " + ex);
+            }
+        }
+
+        // NOTE: a declared length would make openFileDescriptor() refuse the descriptor
+        return new AssetFileDescriptor(openMember(uri, archive, entry), 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!isArchiveUri(uri))
+            return super.openFile(uri, mode);
+
+        if (!"r".equals(mode))
+            throw new FileNotFoundException("Archive members are read only");
+
+        final File archive = archiveOf(uri);
+        return openMember(uri, archive, findMember(archive, memberOf(uri)));
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (!isArchiveUri(uri))
+            return super.query(uri, projection, selection, selectionArgs, sortOrder);
+
+        final ZipDirectory.Entry entry;
+        try {
+            entry = findMember(archiveOf(uri), memberOf(uri));
+        }
+        catch (FileNotFoundException ex) {
+            return null;
+        }
+
+        final String[] columns = projection != null ? projection : DEFAULT_PROJECTION;
+        final MatrixCursor cursor = new MatrixCursor(columns, 1);
+        final Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(columns[i]))
+                row[i] = uri.getLastPathSegment();
+            else if (OpenableColumns.SIZE.equals(columns[i]))
+                row[i] = entry.size;
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        if (!isArchiveUri(uri))
+            return super.getType(uri);
+
+        final String name = uri.getLastPathSegment();
+        final int dot = name != null ? name.lastIndexOf('.') : -1;
+        if (dot >= 0) {
+            final String ext = name.substring(dot + 1).toLowerCase();
+            final String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(ext);
+            if (mime != null)
+                return mime;
+        }
+        return "application/octet-stream";
+    }
+
+
+    private static boolean isArchiveUri(Uri uri) {
+        final List<String> segments = uri.getPathSegments();
+        return segments.size() > 1
+            && ARCHIVE_SEGMENT.equals(segments.get(0))
+            && uri.getQueryParameter(ARCHIVE_PARAM) != null;
+    }
+
+    // Only archives under the roots of the provider can be opened, otherwise
+    // anyone with a URI grant could read any file this app can
+    private File archiveOf(Uri uri) throws FileNotFoundException {
+        final File archive;
+        try {
+            archive = new File(uri.getQueryParameter(ARCHIVE_PARAM)).getCanonicalFile();
+            FileProvider.getUriForFile(getContext(), AUTHORITY, archive);
+        }
+        catch (IOException | IllegalArgumentException ex) {
+            throw new FileNotFoundException("The archive of " + uri + " is not accessible");
+        }
+        return archive;
+    }
+
+    private static String memberOf(Uri uri) {
+        final List<String> segments = uri.getPathSegments();
+        return TextUtils.join("/", segments.subList(1, segments.size()));
+    }
+
+    private static ZipDirectory.Entry findMember(File archive, String member) throws FileNotFoundException {
+        try {
+            final ZipDirectory.Entry entry = ZipDirectory.find(ZipDirectory.read(archive), member);
+            if (entry == null || entry.isDirectory())
+                throw new FileNotFoundException("No file named " + member + " in " + archive);
+            if (entry.encrypted)
+                throw new FileNotFoundException("The archive member " + member + " is encrypted");
+            return entry;
+        }
+        catch (FileNotFoundException ex) {
+            throw ex;
+        }
+        catch (IOException ex) {
+            throw new FileNotFoundException("Could not read " + archive + ": " + ex);
+        }
+    }
+
+
+    // The cached copy of the member if there is one, otherwise a pipe it's being
+    // decompressed into. If the member is already being decompressed for another
+    // reader, the new one follows that decompression instead of starting its own.
+    private ParcelFileDescriptor openMember(Uri uri, File archive, ZipDirectory.Entry entry) throws FileNotFoundException {
+        try {
+            final File cached = cacheFileFor(archive, entry);
+            final ParcelFileDescriptor[] pipe;
+            synchronized (m_in_flight) {
+                if (cached.isFile()) {
+                    cached.setLastModified(System.currentTimeMillis());
+                    return ParcelFileDescriptor.open(cached, ParcelFileDescriptor.MODE_READ_ONLY);
+                }
+
+                pipe = ParcelFileDescriptor.createReliablePipe();
+                final Decompression running = m_in_flight.get(cached.getPath());
+                if (running != null) {
+                    startFollowing(running, pipe[1]);
+                }
+                else {
+                    final Decompression started = new Decompression(File.createTempFile("member", ".part", cacheDir()));
+                    m_in_flight.put(cached.getPath(), started);
+                    startDecompressing(archive, entry, cached, started, pipe[1]);
+                }
+            }
+            return pipe[0];
+        }
+        catch (IOException ex) {
+            throw new FileNotFoundException("Could not open " + uri + ": " + ex);
+        }
+    }
+
+
+    // The progress of a member being decompressed into its temporary file
+    private static final class Decompression {
+        final File temp;
+        private long m_written = 0;
+        private boolean m_done = false;
+        private String m_error = null;
+
+        Decompression(File temp) {
+            this.temp = temp;
+        }
+
+        synchronized void onWritten(long len) {
+            m_written += len;
+            notifyAll();
+        }
+
+        synchronized void onFinished(String error) {
+            m_done = true;
+            m_error = error;
+            notifyAll();
+        }
+
+        // Waits until there is more data than `pos`, and returns the amount
+        // written, or returns `pos` if the decompression has ended
+        synchronized long awaitMoreThan(long pos) throws InterruptedException {
+            while (m_written <= pos && !m_done)
+                wait();
+            return m_written;
+        }
+
+        synchronized String error() {
+            return m_error;
+        }
+    }
+
+
+    private File cacheDir() {
+        final File dir = new File(getContext().getCacheDir(), CACHE_DIR_NAME);
+        dir.mkdirs();
+        return dir;
+    }
+
+    // The cache file name depends on the archive's identity and the member,
+    // so modified archives don't get served from an outdated cache
+    private File cacheFileFor(File archive, ZipDirectory.Entry entry) throws IOException {
+        final String key = archive.getAbsolutePath()
+            + '\n' + archive.length()
+            + '\n' + archive.lastModified()
+            + '\n' + entry.name;
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            final String name = String.format("%040x", new BigInteger(1, hash));
+
+            final int dot = entry.name.lastIndexOf('.');
+            final String ext = dot > entry.name.lastIndexOf('/') ? entry.name.substring(dot) : "";
+            return new File(cacheDir(), name + ext);
+        }
+        catch (java.security.NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    // Decompresses the member on a background thread, writing both to the pipe
+    // and to the temporary file, which becomes the cache entry when complete.
+    // The cache is still filled if the reader closes the pipe early. On failure
+    // the pipe is closed with an error, so a partial member never reads as complete.
+    private void startDecompressing(File archive, ZipDirectory.Entry entry, File cached, Decompression progress, ParcelFileDescriptor pipe_write) {
+        final File cache_dir = cacheDir();
+        final Thread thread = new Thread(() -> {
+            ParcelFileDescriptor pipe = pipe_write;
+            String error = null;
+            try (ZipFile zip = new ZipFile(archive)) {
+                final ZipEntry zip_entry = zip.getEntry(entry.name);
+                if (zip_entry == null)
+                    throw new IOException("Entry not found");
+
+                // NOTE: the pipe stream is not closed, the pipe is closed with its status below
+                final OutputStream pipe_out = new FileOutputStream(pipe_write.getFileDescriptor());
+                try (InputStream in = zip.getInputStream(zip_entry);
+                     OutputStream cache_out = new FileOutputStream(progress.temp))
+                {
+                    final byte[] buffer = new byte[64 * 1024];
+                    int len;
+                    while ((len = in.read(buffer)) > 0) {
+                        cache_out.write(buffer, 0, len);
+                        progress.onWritten(len);
+                        if (pipe != null) {
+                            try {
+                                pipe_out.write(buffer, 0, len);
+                            }
+                            catch (IOException ex) {
+                                closePipe(pipe, null);
+                                pipe = null;
+                            }
+                        }
+                    }
+                }
+            }
+            catch (IOException ex) {
+                error = "Failed to decompress " + entry.name + " from " + archive + ": " + ex;
+                Log.w(TAG, error);
+            }
+            finally {
+                // NOTE: new readers look for the cache file or the running decompression
+                //       under the same lock, so they always find one of them
+                synchronized (m_in_flight) {
+                    m_in_flight.remove(cached.getPath());
+                    if (error == null && !progress.temp.renameTo(cached))
+                        error = "Could not store " + entry.name + " in the cache";
+                }
+                if (error != null)
+                    progress.temp.delete();
+                else
+                    trimCache(cache_dir);
+
+                progress.onFinished(error);
+                closePipe(pipe, error);
+            }
+        }, "ArchiveMemberDecompressor");
+        thread.start();
+    }
+
+    // Copies an already running decompression to another reader, as it
+    // progresses. The temporary file is opened right away, so it stays
+    // readable after it's renamed or deleted at the end.
+    private static void startFollowing(Decompression progress, ParcelFileDescriptor pipe_write) throws IOException {
+        final InputStream temp_in = new FileInputStream(progress.temp);
+        final Thread thread = new Thread(() -> {
+            String error = null;
+            final OutputStream pipe_out = new FileOutputStream(pipe_write.getFileDescriptor());
+            try (InputStream in = temp_in) {
+                final byte[] buffer = new byte[64 * 1024];
+                long pos = 0;
+                long available;
+                while ((available = progress.awaitMoreThan(pos)) > pos) {
+                    while (pos < available) {
+                        final int len = in.read(buffer, 0, (int) Math.min(buffer.length, available - pos));
+                        if (len <= 0)
+                            throw new IOException("The temporary file ended early");
+                        pipe_out.write(buffer, 0, len);
+                        pos += len;
+                    }
+                }
+                error = progress.error();
+            }
+            catch (IOException | InterruptedException ex) {
+                error = "Failed to follow " + progress.temp + ": " + ex;
+            }
+            finally {
+                closePipe(pipe_write, error);
+            }
+        }, "ArchiveMemberFollower");
+        thread.start();
+    }
+
+    // Removes the least recently used entries above the size limit
+    private static void trimCache(File cache_dir) {
+        final File[] files = cache_dir.listFiles();
+        if (files == null)
+            return;
+
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        if (total <= CACHE_MAX_BYTES)
+            return;
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= CACHE_MAX_BYTES)
+                break;
+            if (file.getName().endsWith(".part"))
+                continue;
+
+            final long len = file.length();
+            if (file.delete())
+                total -= len;
+        }
+    }
+
+    // With an error, the reader gets it instead of a normal end of file
+    private static void closePipe(ParcelFileDescriptor pipe_write, String error) {
+        if (pipe_write == null)
+            return;
+        try {
+            if (error != null)
+                pipe_write.closeWithError(error);
+            else
+                pipe_write.close();
+        }
+        catch (IOException ex) { }
+    }
+}
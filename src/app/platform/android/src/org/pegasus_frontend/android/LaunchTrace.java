@@ -0,0 +1,126 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+
+// Records what the system returned to the helpers during scans and launches,
+// so the display choices can be checked later without a device (see DisplayChoiceCheck
+// and LaunchTraceReader in the tools directory, which are not part of the app).
+// Recording is enabled by creating an empty file called `record_trace` in the
+// app's external files directory, eg.
+// `adb shell touch /sdcard/Android/data/org.pegasus_frontend.android/files/record_trace`,
+// then every start of the app writes a new `trace-<time>.txt` file there.
+//
+// The trace is a text file with one record per line and tab separated fields:
+//   appList     <elapsed ns> <app count>
+//   app         <package> <name> <launch action> <launch component> <icon id> <user serial>
+//   sdcardPaths <elapsed ns> <path>...
+//   displays    <package> <current id> <requested id or -> <affinity id or -> <chosen id> <display id>...
+//   launch      <elapsed ns> <1 on success, 0 otherwise> <am argument>...
+// The `app` lines belong to the `appList` before them. Tabs, newlines and
+// backslashes in the fields are escaped with a backslash.
+// NOTE: this is plain Java, so the tools can use the constants outside of Android
+final class LaunchTrace {
+    public static final String HEADER = "# pegasus-trace 2";
+    public static final String REQUEST_FILE_NAME = "record_trace";
+
+    public static final String APP_LIST = "appList";
+    public static final String APP = "app";
+    public static final String SDCARD_PATHS = "sdcardPaths";
+    public static final String DISPLAYS = "displays";
+    public static final String LAUNCH = "launch";
+
+    private static volatile Writer m_writer = null;
+
+
+    private LaunchTrace() {}
+
+
+    // Starts recording if it was requested by the user
+    public static synchronized void startIfRequested(File dir) {
+        if (m_writer != null || dir == null || !new File(dir, REQUEST_FILE_NAME).isFile())
+            return;
+
+        final File file = new File(dir, "trace-" + System.currentTimeMillis() + ".txt");
+        try {
+            m_writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            m_writer.write(HEADER);
+            m_writer.write('\n');
+            m_writer.flush();
+        }
+        catch (IOException ex) {
+            m_writer = null;
+        }
+    }
+
+    public static boolean isRecording() {
+        return m_writer != null;
+    }
+
+    // Writes a line, or a group of lines that should stay together
+    public static synchronized void record(List<String[]> lines) {
+        if (m_writer == null)
+            return;
+
+        try {
+            for (String[] fields : lines) {
+                for (int i = 0; i < fields.length; i++) {
+                    if (i > 0)
+                        m_writer.write('\t');
+                    m_writer.write(escape(fields[i]));
+                }
+                m_writer.write('\n');
+            }
+            // NOTE: the app may be killed at any time, so nothing is kept in the buffer
+            m_writer.flush();
+        }
+        catch (IOException ex) {
+            try {
+                m_writer.close();
+            }
+            catch (IOException ignored) {}
+            m_writer = null;
+        }
+    }
+
+    public static void record(String... fields) {
+        record(Collections.singletonList(fields));
+    }
+
+
+    private static String escape(String field) {
+        if (field == null)
+            return "";
+
+        return field
+            .replace("\\", "\\\\")
+            .replace("\t", "\\t")
+            .replace("\n", "\\n");
+    }
+}
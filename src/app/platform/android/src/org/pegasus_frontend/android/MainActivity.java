@@ -18,6 +18,7 @@
 package org.pegasus_frontend.android;
 
 import android.app.ActivityManager;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.app.Activity;
 import android.content.Intent;
@@ -27,95 +28,345 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.BatteryManager;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.UserManager;
 import android.os.storage.StorageManager;
 import android.os.storage.StorageVolume;
 import android.provider.Settings;
+import android.util.Log;
+import android.view.MotionEvent;
 import androidx.core.content.FileProvider;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class MainActivity extends org.qtproject.qt5.android.bindings.QtActivity {
+    private static final String TAG = "MainActivity";
+
     private static Activity m_self;
     private static PackageManager m_pm;
     private static int m_icon_density;
-
-
+    private static long m_user_serial;
+    private static LauncherAppsSource m_launcher_apps;
+    private static UsageStatsSource m_usage_stats;
+    private static IconCache m_icon_cache;
+    // The saved app list is only used by the first appList() call, see AppSnapshot
+    private static volatile boolean m_app_snapshot_checked = false;
+    private static final Handler m_main_handler = new Handler(Looper.getMainLooper());
+    private static PowerState m_power_state;
+    private GamepadInput m_gamepad_input;
+
+    // Icon IDs are either DEFAULT_ICON_ID for apps without an icon of their own,
+    // or the name of the first package seen with the same icon content
+    public static final String DEFAULT_ICON_ID = "default";
+    private static final ConcurrentHashMap<Long, String> m_icon_ids_by_hash = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> m_icon_ids_by_package = new ConcurrentHashMap<>();
+
+
+    // NOTE: The values cached here don't change while the app is running, so
+    //       they are only queried once per activity, and not every time the
+    //       frontend returns from a game. This happens before the Qt side is
+    //       started by QtActivity.onCreate(), so it can use them right away.
     @Override
-    protected void onStart() {
-        super.onStart();
+    protected void onCreate(Bundle savedInstanceState) {
         m_self = this;
         m_pm = getPackageManager();
 
         ActivityManager am = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
         m_icon_density = am.getLauncherLargeIconDensity();
+
+        UserManager um = (UserManager) getSystemService(Context.USER_SERVICE);
+        m_user_serial = um.getSerialNumberForUser(Process.myUserHandle());
+
+        if (m_launcher_apps == null)
+            m_launcher_apps = LauncherAppsSource.create(getApplicationContext());
+        if (m_usage_stats == null)
+            m_usage_stats = new UsageStatsSource(getApplicationContext());
+        if (m_icon_cache == null)
+            m_icon_cache = new IconCache(getApplicationContext());
+        IndexJobService.schedule(getApplicationContext());
+        final File files_dir = getExternalFilesDir(null);
+        LaunchTrace.startIfRequested(files_dir);
+        IconBenchmark.startIfRequested(getApplicationContext(), files_dir);
+        AppListBenchmark.startIfRequested(getApplicationContext(), files_dir);
+
+        super.onCreate(savedInstanceState);
+        m_power_state = new PowerState(this);
+        m_gamepad_input = GamepadInput.create();
+    }
+
+    @Override
+    public boolean dispatchGenericMotionEvent(MotionEvent event) {
+        if (m_gamepad_input != null)
+            m_gamepad_input.onMotionEvent(event);
+
+        return super.dispatchGenericMotionEvent(event);
+    }
+
+    @Override
+    protected void onDestroy() {
+        m_power_state.close();
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        m_power_state.setYielding(false);
+    }
+
+    // NOTE: With multiple resumed activities (Android 10+, eg. when the game
+    //       runs on another display), onResume is not called when the user
+    //       returns, but the focus still comes back
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus)
+            m_power_state.setYielding(false);
     }
 
 
     public static App[] appList() {
+        final long metrics_start = Metrics.begin(Metrics.APP_LIST);
+        boolean success = false;
+        try {
+            App[] entries = null;
+            if (!m_app_snapshot_checked) {
+                m_app_snapshot_checked = true;
+                entries = AppSnapshot.load(m_self);
+                if (entries != null)
+                    Log.i(TAG, "App list loaded from the saved snapshot");
+            }
+            if (entries == null) {
+                entries = m_launcher_apps != null
+                    ? m_launcher_apps.appList()
+                    : appListFromPackageManager(m_pm, m_user_serial);
+            }
+            success = true;
+            if (LaunchTrace.isRecording())
+                traceAppList(entries, System.nanoTime() - metrics_start);
+            return entries;
+        }
+        finally {
+            Metrics.end(Metrics.APP_LIST, metrics_start, success);
+        }
+    }
+
+    private static void traceAppList(App[] entries, long elapsed_ns) {
+        final List<String[]> lines = new ArrayList<>(entries.length + 1);
+        lines.add(new String[] { LaunchTrace.APP_LIST, String.valueOf(elapsed_ns), String.valueOf(entries.length) });
+        for (App app : entries) {
+            lines.add(new String[] {
+                LaunchTrace.APP,
+                app.packageName(),
+                app.appName(),
+                app.launchAction(),
+                app.launchComponent(),
+                app.iconId(),
+                String.valueOf(app.userSerial()),
+            });
+        }
+        LaunchTrace.record(lines);
+    }
+
+    // Fallback for when LauncherApps is not available
+    static App[] appListFromPackageManager(PackageManager pm, long userSerial) {
         Intent intent = new Intent(Intent.ACTION_MAIN, null);
         intent.addCategory(Intent.CATEGORY_LAUNCHER);
-        List<ResolveInfo> activities = m_pm.queryIntentActivities(intent, 0);
+        List<ResolveInfo> activities = pm.queryIntentActivities(intent, 0);
 
         App[] entries = new App[activities.size()];
         for (int i = 0; i < activities.size(); i++)
-            entries[i] = new App(m_pm, activities.get(i));
+            entries[i] = new App(pm, activities.get(i), userSerial);
 
         return entries;
     }
 
 
+    // Foreground time and last use of all packages, or null on failure
+    public static AppUsage appUsage() {
+        final long metrics_start = Metrics.begin(Metrics.APP_USAGE);
+        boolean success = false;
+        try {
+            final AppUsage usage = m_usage_stats.query();
+            success = true;
+            return usage;
+        }
+        catch (Exception ex) {
+            Log.w(TAG, "Could not query the app usage stats: " + ex);
+            return null;
+        }
+        finally {
+            Metrics.end(Metrics.APP_USAGE, metrics_start, success);
+        }
+    }
+
     public static byte[] appIcon(String packageName) {
-        Drawable drawable = null;
+        final long metrics_start = Metrics.begin(Metrics.APP_ICON);
+        // NOTE: falling back to the default icon counts as a failure
+        boolean success = false;
         try {
-            // NOTE: while there is m_pm.getApplicationInfo(), unfortunately
+            final IconEncoder encoder = IconEncoder.forCurrentThread();
+            success = encodeAppIcon(encoder, packageName);
+            return encoder.resultToByteArray();
+        }
+        finally {
+            Metrics.end(Metrics.APP_ICON, metrics_start, success);
+        }
+    }
+
+
+    // Writes the content hash of the icon (8 bytes, native byte order) then the PNG icon
+    // to the start of the buffer, which should be a direct one. The package name may also
+    // be DEFAULT_ICON_ID. Returns the length of the PNG data, or if it doesn't fit, minus
+    // the required capacity; calling again with a large enough buffer will not re-encode the icon.
+    public static int appIconInto(String packageName, ByteBuffer out) {
+        final long metrics_start = Metrics.begin(Metrics.APP_ICON);
+        boolean success = false;
+        try {
+            final IconEncoder encoder = IconEncoder.forCurrentThread();
+            final boolean reusable = encoder.hasResultFor(packageName)
+                && !updatedSince(packageName, encoder.resultTimeMs());
+            success = reusable || encodeAppIcon(encoder, packageName);
+
+            if (!encoder.copyResultTo(out))
+                return -(IconEncoder.RESULT_HEADER_SIZE + encoder.resultLength());
+
+            return encoder.resultLength();
+        }
+        finally {
+            Metrics.end(Metrics.APP_ICON, metrics_start, success);
+        }
+    }
+
+
+    // True if the package was installed or updated after the time, or it's not known.
+    // NOTE: this is an IPC call, so only done when an earlier result could be reused.
+    private static boolean updatedSince(String packageName, long timeMs) {
+        if (DEFAULT_ICON_ID.equals(packageName))
+            return false;
+
+        final long version = IconCache.packageVersion(m_pm, packageName);
+        return version < 0 || version >= timeMs;
+    }
+
+    // The icon ID to use for the package, see DEFAULT_ICON_ID. Packages
+    // whose icons weren't loaded yet are their own IDs.
+    // NOTE: on the native side the decoded icons are shared by content hash,
+    //       so identical icons are only kept once even before this is known
+    public static String iconId(String packageName) {
+        final String icon_id = m_icon_ids_by_package.get(packageName);
+        return icon_id != null ? icon_id : packageName;
+    }
+
+    // Same as above, but the content hash of the icon is already known (eg. from
+    // the saved app list), so apps with identical icons share the ID right away
+    public static String iconId(String packageName, long iconHash) {
+        if (iconHash == 0)
+            return iconId(packageName);
+
+        final String existing_id = m_icon_ids_by_hash.putIfAbsent(iconHash, packageName);
+        final String icon_id = existing_id != null ? existing_id : packageName;
+        m_icon_ids_by_package.put(packageName, icon_id);
+        return icon_id;
+    }
+
+
+    private static Drawable launcherAppsIcon(String packageName) {
+        if (m_launcher_apps == null)
+            return null;
+
+        try {
+            return m_launcher_apps.icon(packageName, m_icon_density);
+        }
+        catch (Exception ex) {
+            return null;
+        }
+    }
+
+
+    static Drawable packageManagerIcon(PackageManager pm, String packageName, int density) {
+        try {
+            // NOTE: while there is pm.getApplicationInfo(), unfortunately
             //       that returns low density images for most apps
-            ApplicationInfo appinfo = m_pm.getApplicationInfo(packageName, 0);
-            Resources resources = m_pm.getResourcesForApplication(appinfo);
-            Intent launch_intent = m_pm.getLaunchIntentForPackage(packageName);
-            ResolveInfo resolveinfo = m_pm.resolveActivity(launch_intent, 0);
+            ApplicationInfo appinfo = pm.getApplicationInfo(packageName, 0);
+            Resources resources = pm.getResourcesForApplication(appinfo);
+            Intent launch_intent = pm.getLaunchIntentForPackage(packageName);
+            ResolveInfo resolveinfo = pm.resolveActivity(launch_intent, 0);
             // NOTE: getDrawableForDensity() has changed in API 21-22
-            drawable = resources.getDrawableForDensity(resolveinfo.activityInfo.getIconResource(), m_icon_density);
+            return resources.getDrawableForDensity(resolveinfo.activityInfo.getIconResource(), density);
         }
-        catch (Exception ex) { }
-        if (drawable == null)
-            drawable = m_pm.getDefaultActivityIcon();
+        catch (Exception ex) {
+            return null;
+        }
+    }
 
-        Bitmap bitmap = drawableToBitmap(drawable);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        return stream.toByteArray();
+
+    // Called when the package was changed or removed
+    static void forgetIconId(String packageName) {
+        m_icon_ids_by_package.remove(packageName);
+        m_icon_ids_by_package.values().removeAll(Collections.singleton(packageName));
+        m_icon_ids_by_hash.values().removeAll(Collections.singleton(packageName));
     }
 
 
-    private static Bitmap drawableToBitmap(Drawable drawable) {
-        if (drawable instanceof BitmapDrawable) {
-            // TODO: handle null
-            return ((BitmapDrawable) drawable).getBitmap();
+    // Returns false if the default icon had to be used
+    private static boolean encodeAppIcon(IconEncoder encoder, String packageName) {
+        final boolean found = loadAppIcon(encoder, packageName);
+        if (DEFAULT_ICON_ID.equals(packageName))
+            return true;
+
+        if (found)
+            rememberIconId(encoder, packageName);
+        else
+            m_icon_ids_by_package.put(packageName, DEFAULT_ICON_ID);
+        return found;
+    }
+
+    // The loading and encoding part of the above, without updating the icon IDs
+    // (also used by IconBenchmark). Returns false if the default icon had to be used.
+    static boolean loadAppIcon(IconEncoder encoder, String packageName) {
+        if (DEFAULT_ICON_ID.equals(packageName)) {
+            encoder.encode(packageName, m_pm.getDefaultActivityIcon());
+            return true;
         }
 
-        int w = Math.max(1, drawable.getIntrinsicWidth());
-        int h = Math.max(1, drawable.getIntrinsicHeight());
-        Bitmap bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        // NOTE: checking the package version is an IPC call, so only done if there is an entry
+        if (m_icon_cache.contains(packageName)
+            && m_icon_cache.load(packageName, IconCache.packageVersion(m_pm, packageName), encoder))
+        {
+            return true;
+        }
+
+        Drawable drawable = launcherAppsIcon(packageName);
+        if (drawable == null)
+            drawable = packageManagerIcon(m_pm, packageName, m_icon_density);
 
-        Canvas canvas = new Canvas(bitmap);
-        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-        drawable.draw(canvas);
-        return bitmap;
+        final boolean found = drawable != null;
+        encoder.encode(packageName, found ? drawable : m_pm.getDefaultActivityIcon());
+        return found;
+    }
+
+    private static void rememberIconId(IconEncoder encoder, String packageName) {
+        iconId(packageName, encoder.resultHash());
     }
 
 
@@ -126,58 +377,88 @@ public class MainActivity extends org.qtproject.qt5.android.bindings.QtActivity
 
 
     public static String[] sdcardPaths() {
-        // Functions with high API level dependencies:
-        // - https://developer.android.com/reference/android/os/storage/StorageManager#getStorageVolumes()
-        // - https://developer.android.com/reference/android/os/storage/StorageVolume#getDirectory()
+        final long metrics_start = Metrics.begin(Metrics.SDCARD_PATHS);
+        boolean success = false;
+        try {
+            // NOTE: a failed reflection call only drops some of the volumes,
+            //       but it is still reported as a failure
+            boolean reflection_ok = true;
 
-        final StorageManager storage_man = (StorageManager) m_self.getSystemService(Context.STORAGE_SERVICE);
+            // Functions with high API level dependencies:
+            // - https://developer.android.com/reference/android/os/storage/StorageManager#getStorageVolumes()
+            // - https://developer.android.com/reference/android/os/storage/StorageVolume#getDirectory()
 
-        List<StorageVolume> storage_vols = null;
-        if (Build.VERSION.SDK_INT >= 24) {
-            storage_vols = storage_man.getStorageVolumes();
-        }
-        else {
-            try {
-                final Method volumelist_getter = StorageManager.class.getMethod("getVolumeList");
-                final StorageVolume[] storage_vols_arr = (StorageVolume[]) volumelist_getter.invoke(storage_man);
-                storage_vols = Arrays.asList(storage_vols_arr);
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            } catch (InvocationTargetException e) {
-                e.printStackTrace();
-            } catch (NoSuchMethodException e) {
-                e.printStackTrace();
+            final StorageManager storage_man = (StorageManager) m_self.getSystemService(Context.STORAGE_SERVICE);
+
+            List<StorageVolume> storage_vols = null;
+            if (Build.VERSION.SDK_INT >= 24) {
+                storage_vols = storage_man.getStorageVolumes();
+            }
+            else {
+                try {
+                    final Method volumelist_getter = StorageManager.class.getMethod("getVolumeList");
+                    final StorageVolume[] storage_vols_arr = (StorageVolume[]) volumelist_getter.invoke(storage_man);
+                    storage_vols = Arrays.asList(storage_vols_arr);
+                } catch (IllegalAccessException e) {
+                    reflection_ok = false;
+                    e.printStackTrace();
+                } catch (InvocationTargetException e) {
+                    reflection_ok = false;
+                    e.printStackTrace();
+                } catch (NoSuchMethodException e) {
+                    reflection_ok = false;
+                    e.printStackTrace();
+                }
             }
-        }
 
-        List<File> mount_points = new ArrayList<File>();
-        if (Build.VERSION.SDK_INT >= 30) {
-            for (StorageVolume sv : storage_vols)
-                mount_points.add(sv.getDirectory());
-        }
-        else {
-            try {
-                final Method dir_getter = StorageVolume.class.getMethod("getPathFile");
-                for (StorageVolume sv : storage_vols) {
-                    final File mount_point = (File) dir_getter.invoke(sv);
-                    mount_points.add(mount_point);
+            List<File> mount_points = new ArrayList<File>();
+            if (Build.VERSION.SDK_INT >= 30) {
+                for (StorageVolume sv : storage_vols)
+                    mount_points.add(sv.getDirectory());
+            }
+            else {
+                try {
+                    final Method dir_getter = StorageVolume.class.getMethod("getPathFile");
+                    for (StorageVolume sv : storage_vols) {
+                        final File mount_point = (File) dir_getter.invoke(sv);
+                        mount_points.add(mount_point);
+                    }
+                } catch (IllegalAccessException e) {
+                    reflection_ok = false;
+                    e.printStackTrace();
+                } catch (InvocationTargetException e) {
+                    reflection_ok = false;
+                    e.printStackTrace();
+                } catch (NoSuchMethodException e) {
+                    reflection_ok = false;
+                    e.printStackTrace();
                 }
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            } catch (InvocationTargetException e) {
-                e.printStackTrace();
-            } catch (NoSuchMethodException e) {
-                e.printStackTrace();
             }
-        }
 
-        List<String> paths = new ArrayList<String>();
-        for (File mp : mount_points) {
-            if (mp != null)
-                paths.add(mp.getAbsolutePath());
+            List<String> paths = new ArrayList<String>();
+            for (File mp : mount_points) {
+                if (mp != null)
+                    paths.add(mp.getAbsolutePath());
+            }
+            paths.add("/"); // Always add the root
+
+            success = reflection_ok;
+            if (LaunchTrace.isRecording())
+                traceSdcardPaths(paths, System.nanoTime() - metrics_start);
+            return paths.toArray(new String[paths.size()]);
         }
-        paths.add("/"); // Always add the root
-        return paths.toArray(new String[paths.size()]);
+        finally {
+            Metrics.end(Metrics.SDCARD_PATHS, metrics_start, success);
+        }
+    }
+
+
+    private static void traceSdcardPaths(List<String> paths, long elapsed_ns) {
+        final List<String> fields = new ArrayList<>(paths.size() + 2);
+        fields.add(LaunchTrace.SDCARD_PATHS);
+        fields.add(String.valueOf(elapsed_ns));
+        fields.addAll(paths);
+        LaunchTrace.record(fields.toArray(new String[fields.size()]));
     }
 
 
@@ -198,6 +479,35 @@ public class MainActivity extends org.qtproject.qt5.android.bindings.QtActivity
     }
 
 
+    // Opens the documents (content:// URIs, eg. under the granted paths) for reading,
+    // and returns their raw file descriptors, or -1 for the ones that failed.
+    // The descriptors are detached from Java, so nothing here closes them:
+    // the caller owns them and has to close every one that is not -1.
+    public static int[] openDocumentFds(String[] uris) {
+        final long metrics_start = Metrics.begin(Metrics.OPEN_DOCUMENT_FDS);
+        boolean success = true;
+        try {
+            final ContentResolver resolver = m_self.getContentResolver();
+            final int[] fds = new int[uris.length];
+            for (int i = 0; i < uris.length; i++) {
+                try {
+                    final ParcelFileDescriptor pfd = resolver.openFileDescriptor(Uri.parse(uris[i]), "r");
+                    fds[i] = pfd != null ? pfd.detachFd() : -1;
+                }
+                catch (Exception ex) {
+                    fds[i] = -1;
+                }
+                if (fds[i] < 0)
+                    success = false;
+            }
+            return fds;
+        }
+        finally {
+            Metrics.end(Metrics.OPEN_DOCUMENT_FDS, metrics_start, success);
+        }
+    }
+
+
     public static boolean getAllStorageAccess() {
         if (Build.VERSION.SDK_INT < 30)
             return true;
@@ -213,6 +523,19 @@ public class MainActivity extends org.qtproject.qt5.android.bindings.QtActivity
     }
 
     public static BatteryInfo queryBattery() {
+        final long metrics_start = Metrics.begin(Metrics.QUERY_BATTERY);
+        boolean success = false;
+        try {
+            final BatteryInfo info = readBatteryInfo();
+            success = true;
+            return info;
+        }
+        finally {
+            Metrics.end(Metrics.QUERY_BATTERY, metrics_start, success);
+        }
+    }
+
+    private static BatteryInfo readBatteryInfo() {
         final IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
         final Intent batIntent = m_self.registerReceiver(null, ifilter);
 
@@ -234,6 +557,19 @@ public class MainActivity extends org.qtproject.qt5.android.bindings.QtActivity
     }
 
     public static String launchAmCommand(String[] args_arr) {
+        final long metrics_start = Metrics.begin(Metrics.LAUNCH_AM_COMMAND);
+        boolean success = false;
+        try {
+            final String error = runAmCommand(args_arr);
+            success = error == null;
+            return error;
+        }
+        finally {
+            Metrics.end(Metrics.LAUNCH_AM_COMMAND, metrics_start, success);
+        }
+    }
+
+    private static String runAmCommand(String[] args_arr) {
         final LinkedList<String> args = new LinkedList(Arrays.asList(args_arr));
         if (args.isEmpty())
             return "No arguments provided to 'am'";
@@ -243,10 +579,14 @@ public class MainActivity extends org.qtproject.qt5.android.bindings.QtActivity
             return "For 'am', only the 'start' command is supported at the moment, '" + am_command + "' is not";
 
         try {
+            // NOTE: the profile is only used by the prepared launches, see AndroidHelpers
+            AndroidHelpers.extractUserSerialFromArgs(args);
+
             Intent intent = IntentHelper.parseIntentCommand(args);
             intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
             m_self.startActivity(intent);
+            onLaunchStarted(null);
         }
         catch (Exception e) {
             return e.toString() + ": " + e.getMessage();
@@ -255,11 +595,60 @@ public class MainActivity extends org.qtproject.qt5.android.bindings.QtActivity
         return null;
     }
 
+    // Called after a game was started, with the display it was started on, or null
+    // if that was not set; the power state is only touched on the UI thread
+    static void onLaunchStarted(Integer displayId) {
+        m_main_handler.post(() -> {
+            if (m_power_state == null)
+                return;
+
+            // A game on another display doesn't cover the frontend,
+            // which stays in use on its own display
+            final boolean same_display = displayId == null
+                || displayId == m_self.getWindowManager().getDefaultDisplay().getDisplayId();
+            m_power_state.setYielding(same_display);
+        });
+    }
+
+    static void onNativesRegistered() {
+        m_main_handler.post(() -> {
+            if (m_power_state != null)
+                m_power_state.publish();
+        });
+    }
+
     public static String toContentUri(String path) {
-        final Uri uri = FileProvider.getUriForFile(
-            m_self,
-            "org.pegasus_frontend.android.files",
-            new File(path));
-        return uri.toString();
+        final long metrics_start = Metrics.begin(Metrics.TO_CONTENT_URI);
+        boolean success = false;
+        try {
+            final Uri uri = FileProvider.getUriForFile(
+                m_self,
+                LaunchFileProvider.AUTHORITY,
+                new File(path));
+            success = true;
+            return uri.toString();
+        }
+        finally {
+            Metrics.end(Metrics.TO_CONTENT_URI, metrics_start, success);
+        }
+    }
+
+    // A content URI for a file inside a ZIP archive, served without extracting
+    // the whole archive (see LaunchFileProvider). If the member name is empty,
+    // the largest file of the archive is used. With direct, a stored member is
+    // served as a part of the archive file. Returns null on error.
+    public static String toArchiveMemberUri(String archivePath, String memberName, boolean direct) {
+        try {
+            return LaunchFileProvider.archiveMemberUri(new File(archivePath), memberName, direct).toString();
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Could not read the archive " + archivePath + ": " + ex);
+            return null;
+        }
+    }
+
+    // See Metrics.snapshot() for the layout
+    public static long[] helperMetrics() {
+        return Metrics.snapshot();
     }
 }
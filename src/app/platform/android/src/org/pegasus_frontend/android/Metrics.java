@@ -0,0 +1,153 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.pegasus_frontend.android;
+
+import android.os.Trace;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// Call counters and latency histograms for the helper entry points.
+// Usage is `long t = Metrics.begin(ID); try { ... } finally { Metrics.end(ID, t, ok); }`.
+// Durations that are not a call, like the stick event latency of GamepadInput,
+// are added with record().
+// The recording path does not allocate; the native side reads everything
+// at once through snapshot().
+final class Metrics {
+    // Entry points; the order is part of the snapshot format
+    public static final int APP_LIST = 0;
+    public static final int APP_ICON = 1;
+    public static final int QUERY_BATTERY = 2;
+    public static final int SDCARD_PATHS = 3;
+    public static final int LAUNCH_AM_COMMAND = 4;
+    public static final int START_ACTIVITY_FROM_AM_ARGS = 5;
+    public static final int TO_CONTENT_URI = 6;
+    public static final int APP_USAGE = 7;
+    public static final int PREPARE_LAUNCH = 8;
+    // Not a call, but the time from a stick event to its frame, see GamepadInput
+    public static final int GAMEPAD_AXES = 9;
+    public static final int OPEN_DOCUMENT_FDS = 10;
+    public static final int ENTRY_COUNT = 11;
+
+    private static final String[] TRACE_NAMES = {
+        "pegasus:appList",
+        "pegasus:appIcon",
+        "pegasus:queryBattery",
+        "pegasus:sdcardPaths",
+        "pegasus:launchAmCommand",
+        "pegasus:startActivityFromAmArgs",
+        "pegasus:toContentUri",
+        "pegasus:appUsage",
+        "pegasus:prepareLaunch",
+        "pegasus:gamepadAxes",
+        "pegasus:openDocumentFds",
+    };
+
+    // Bucket N counts calls that took less than 2^N microseconds,
+    // the last bucket collects everything above that
+    public static final int BUCKET_COUNT = 24;
+
+    // Per entry point fields of a stripe
+    private static final int F_CALLS = 0;
+    private static final int F_FAILS = 1;
+    private static final int F_TOTAL_NS = 2;
+    private static final int FIELD_COUNT = 3;
+
+    // Counters are spread over a few stripes so threads calling at the same time
+    // (eg. icon requests from the image provider) don't fight over one cache line.
+    // Each stripe is padded to 64 bytes at both ends.
+    private static final int STRIPE_COUNT = 4;
+    private static final int STRIPE_PAD = 8;
+    private static final int STRIPE_LEN = STRIPE_PAD + ENTRY_COUNT * FIELD_COUNT + STRIPE_PAD;
+
+    private static final AtomicLongArray m_counters = new AtomicLongArray(STRIPE_COUNT * STRIPE_LEN);
+    private static final AtomicLongArray m_buckets = new AtomicLongArray(ENTRY_COUNT * BUCKET_COUNT);
+    private static final AtomicLongArray m_max_ns = new AtomicLongArray(ENTRY_COUNT);
+
+    public static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_LEN = 3;
+    private static final int SNAPSHOT_ENTRY_LEN = FIELD_COUNT + 1 + BUCKET_COUNT;
+
+
+    private Metrics() {}
+
+
+    public static long begin(int entry) {
+        Trace.beginSection(TRACE_NAMES[entry]);
+        return System.nanoTime();
+    }
+
+    public static void end(int entry, long start_ns, boolean success) {
+        final long elapsed_ns = System.nanoTime() - start_ns;
+        Trace.endSection();
+        record(entry, elapsed_ns, success);
+    }
+
+    public static void record(int entry, long elapsed_ns, boolean success) {
+        elapsed_ns = Math.max(0, elapsed_ns);
+
+        final int base = stripeBase() + entry * FIELD_COUNT;
+        m_counters.incrementAndGet(base + F_CALLS);
+        if (!success)
+            m_counters.incrementAndGet(base + F_FAILS);
+        m_counters.addAndGet(base + F_TOTAL_NS, elapsed_ns);
+
+        m_buckets.incrementAndGet(entry * BUCKET_COUNT + bucketOf(elapsed_ns));
+
+        long prev_max = m_max_ns.get(entry);
+        while (elapsed_ns > prev_max && !m_max_ns.compareAndSet(entry, prev_max, elapsed_ns))
+            prev_max = m_max_ns.get(entry);
+    }
+
+    // Layout: [version, entry count, bucket count],
+    // then for every entry: [calls, failures, total ns, max ns, bucket 0 .. bucket N-1].
+    // The fields are read one by one, so the values of an entry may be off by
+    // the few calls that finished during the copy.
+    public static long[] snapshot() {
+        final long[] out = new long[SNAPSHOT_HEADER_LEN + ENTRY_COUNT * SNAPSHOT_ENTRY_LEN];
+        out[0] = SNAPSHOT_VERSION;
+        out[1] = ENTRY_COUNT;
+        out[2] = BUCKET_COUNT;
+
+        for (int entry = 0; entry < ENTRY_COUNT; entry++) {
+            final int out_base = SNAPSHOT_HEADER_LEN + entry * SNAPSHOT_ENTRY_LEN;
+
+            for (int stripe = 0; stripe < STRIPE_COUNT; stripe++) {
+                final int base = stripe * STRIPE_LEN + STRIPE_PAD + entry * FIELD_COUNT;
+                for (int field = 0; field < FIELD_COUNT; field++)
+                    out[out_base + field] += m_counters.get(base + field);
+            }
+            out[out_base + FIELD_COUNT] = m_max_ns.get(entry);
+
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+                out[out_base + FIELD_COUNT + 1 + bucket] = m_buckets.get(entry * BUCKET_COUNT + bucket);
+        }
+        return out;
+    }
+
+
+    private static int stripeBase() {
+        final int stripe = (int) (Thread.currentThread().getId() & (STRIPE_COUNT - 1));
+        return stripe * STRIPE_LEN + STRIPE_PAD;
+    }
+
+    private static int bucketOf(long elapsed_ns) {
+        final long micros = elapsed_ns / 1000;
+        final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+}
@@ -0,0 +1,53 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+
+// Methods implemented on the native side, for the events Java has to push
+// instead of waiting for a call. The native code registers them during
+// startup (see platform/AndroidNativeEvents.cpp); until then calling them
+// would throw UnsatisfiedLinkError, so callers check isRegistered() first.
+final class NativeBridge {
+    private static volatile boolean m_registered = false;
+
+
+    private NativeBridge() {}
+
+
+    // NOTE: JNI FindClass can't see the app's classes from native threads,
+    //       so the native side asks for the class object here
+    public static Class<?> bridgeClass() {
+        return NativeBridge.class;
+    }
+
+    public static void onNativesRegistered() {
+        m_registered = true;
+        MainActivity.onNativesRegistered();
+    }
+
+    public static boolean isRegistered() {
+        return m_registered;
+    }
+
+
+    // See PowerState
+    static native void powerStateChanged(int thermalStatus, boolean yielding);
+    // See GamepadInput
+    static native void gamepadFrame();
+}
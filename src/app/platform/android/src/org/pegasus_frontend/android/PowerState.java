@@ -0,0 +1,136 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+
+// Tracks the thermal status of the device and whether the frontend should
+// yield, ie. stay out of the way of a game that is being launched, and
+// reports both to the native side. When the device starts throttling, the
+// activity switches to sustained performance mode, where the system keeps
+// the clocks at a level that can be held for long sessions.
+// Used on the UI thread only.
+final class PowerState {
+    private static final String TAG = "PowerState";
+
+    // PowerManager.THERMAL_STATUS_* values, or this one before API 29
+    public static final int THERMAL_STATUS_UNKNOWN = -1;
+
+    // A game should be past its startup by then; if the frontend is still
+    // in the background, the native side already keeps quiet for that reason
+    private static final long YIELD_TIMEOUT_MS = 30 * 1000;
+
+    private final Activity m_activity;
+    private final PowerManager m_power_man;
+    private final boolean m_sustained_supported;
+    private PowerManager.OnThermalStatusChangedListener m_thermal_listener;
+    private final Handler m_handler = new Handler(Looper.getMainLooper());
+    private final Runnable m_yield_timeout = () -> setYielding(false);
+
+    private int m_thermal_status = THERMAL_STATUS_UNKNOWN;
+    private boolean m_sustained = false;
+    private boolean m_yielding = false;
+
+
+    public PowerState(Activity activity) {
+        m_activity = activity;
+        m_power_man = (PowerManager) activity.getSystemService(Context.POWER_SERVICE);
+        m_sustained_supported = m_power_man != null
+            && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+            && m_power_man.isSustainedPerformanceModeSupported();
+
+        if (m_power_man != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            m_thermal_status = m_power_man.getCurrentThermalStatus();
+            m_thermal_listener = this::onThermalStatusChanged;
+            m_power_man.addThermalStatusListener(activity.getMainExecutor(), m_thermal_listener);
+        }
+
+        log("Initial state");
+        updateSustainedMode();
+    }
+
+    public void close() {
+        m_handler.removeCallbacks(m_yield_timeout);
+        if (m_thermal_listener != null) {
+            m_power_man.removeThermalStatusListener(m_thermal_listener);
+            m_thermal_listener = null;
+        }
+    }
+
+
+    // Set when a game was launched on the display of the frontend, and cleared
+    // when the frontend gets the focus back, or after YIELD_TIMEOUT_MS at most
+    public void setYielding(boolean yielding) {
+        m_handler.removeCallbacks(m_yield_timeout);
+        if (yielding)
+            m_handler.postDelayed(m_yield_timeout, YIELD_TIMEOUT_MS);
+
+        if (m_yielding == yielding)
+            return;
+
+        m_yielding = yielding;
+        log(yielding ? "Yielding to the launched game" : "Stopped yielding");
+        publish();
+    }
+
+    // Sends the current state to the native side
+    public void publish() {
+        if (NativeBridge.isRegistered())
+            NativeBridge.powerStateChanged(m_thermal_status, m_yielding);
+    }
+
+
+    private void onThermalStatusChanged(int status) {
+        if (m_thermal_status == status)
+            return;
+
+        m_thermal_status = status;
+        log("Thermal status changed");
+        updateSustainedMode();
+        publish();
+    }
+
+    private void updateSustainedMode() {
+        if (!m_sustained_supported)
+            return;
+
+        final boolean sustained = m_thermal_status >= PowerManager.THERMAL_STATUS_MODERATE;
+        if (m_sustained == sustained)
+            return;
+
+        m_sustained = sustained;
+        m_activity.setSustainedPerformanceMode(sustained);
+        log(sustained ? "Sustained performance mode enabled" : "Sustained performance mode disabled");
+    }
+
+    private void log(String what) {
+        Log.i(TAG, what + " at " + SystemClock.elapsedRealtime() + " ms since boot"
+            + " (thermal status " + m_thermal_status
+            + ", sustained " + m_sustained
+            + ", yielding " + m_yielding + ")");
+    }
+}
@@ -0,0 +1,277 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+
+package org.pegasus_frontend.android;
+
+import android.app.AppOpsManager;
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+
+// Foreground time and last use of the installed apps, from UsageStatsManager.
+// The first call imports the aggregated stats the system has collected so far.
+// After that, only the events newer than the watermark are read, and the totals
+// are kept in a small file, so the next start of the app continues from there.
+// Reading the stats requires the PACKAGE_USAGE_STATS app op, which the user
+// has to grant in the system settings; without it, nothing is imported and
+// the watermark stays where it was.
+final class UsageStatsSource {
+    private static final String TAG = "UsageStatsSource";
+    private static final String CACHE_FILE_NAME = "app_usage.bin";
+    private static final int CACHE_VERSION = 1;
+
+    private static final class Usage {
+        long foreground_ms = 0;
+        long last_used_ms = 0;
+        // Start of the session still running at the watermark, or -1
+        long foreground_since_ms = -1;
+        // The activities resumed at the moment (API 29+ only, not saved)
+        final HashSet<String> resumed_activities = new HashSet<>();
+    }
+
+    private final Context m_context;
+    private final File m_cache_file;
+    private final HashMap<String, Usage> m_usage = new HashMap<>();
+    private long m_watermark_ms = -1;
+    private boolean m_cache_loaded = false;
+
+
+    public UsageStatsSource(Context ctx) {
+        m_context = ctx;
+        m_cache_file = new File(ctx.getFilesDir(), CACHE_FILE_NAME);
+    }
+
+
+    public synchronized AppUsage query() {
+        if (!m_cache_loaded) {
+            m_cache_loaded = true;
+            loadCache();
+        }
+
+        final UsageStatsManager usm = usageStatsManager();
+        if (usm != null) {
+            final long now_ms = System.currentTimeMillis();
+            if (m_watermark_ms < 0)
+                importAggregated(usm, now_ms);
+            else if (now_ms > m_watermark_ms)
+                importEvents(usm, m_watermark_ms, now_ms);
+
+            m_watermark_ms = now_ms;
+            saveCache();
+        }
+
+        return toAppUsage();
+    }
+
+
+    private UsageStatsManager usageStatsManager() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1)
+            return null;
+
+        final AppOpsManager app_ops = (AppOpsManager) m_context.getSystemService(Context.APP_OPS_SERVICE);
+        if (app_ops == null)
+            return null;
+
+        final int mode = app_ops.checkOpNoThrow(AppOpsManager.OPSTR_GET_USAGE_STATS, Process.myUid(), m_context.getPackageName());
+        if (mode != AppOpsManager.MODE_ALLOWED)
+            return null;
+
+        return (UsageStatsManager) m_context.getSystemService(Context.USAGE_STATS_SERVICE);
+    }
+
+    // One pass over everything the system kept, aggregated per package
+    private void importAggregated(UsageStatsManager usm, long now_ms) {
+        final Map<String, UsageStats> stats = usm.queryAndAggregateUsageStats(0, now_ms);
+        for (Map.Entry<String, UsageStats> entry : stats.entrySet()) {
+            final UsageStats package_stats = entry.getValue();
+            final Usage usage = usageOf(entry.getKey());
+            usage.foreground_ms += package_stats.getTotalTimeInForeground();
+            usage.last_used_ms = Math.max(usage.last_used_ms, package_stats.getLastTimeUsed());
+        }
+        Log.i(TAG, "Imported the usage of " + stats.size() + " packages");
+    }
+
+    // One pass over the events since the last call.
+    // NOTE: since API 29 the events are reported per activity, so with more than one
+    //       activity of an app on screen (eg. multi-window), pausing one of them
+    //       doesn't end the session of the app
+    private void importEvents(UsageStatsManager usm, long begin_ms, long end_ms) {
+        final UsageEvents events = usm.queryEvents(begin_ms, end_ms);
+        final UsageEvents.Event event = new UsageEvents.Event();
+        final boolean per_activity = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+        int event_count = 0;
+
+        while (events.hasNextEvent()) {
+            events.getNextEvent(event);
+            event_count++;
+
+            final long time_ms = event.getTimeStamp();
+            final int event_type = event.getEventType();
+            if (per_activity) {
+                if (event_type == UsageEvents.Event.ACTIVITY_RESUMED) {
+                    final Usage usage = usageOf(event.getPackageName());
+                    usage.resumed_activities.add(event.getClassName());
+                    startSession(usage, time_ms);
+                    continue;
+                }
+                if (event_type == UsageEvents.Event.ACTIVITY_PAUSED) {
+                    final Usage usage = usageOf(event.getPackageName());
+                    usage.resumed_activities.remove(event.getClassName());
+                    if (usage.resumed_activities.isEmpty())
+                        endSession(usage, time_ms);
+                    continue;
+                }
+            }
+            else {
+                if (event_type == UsageEvents.Event.MOVE_TO_FOREGROUND) {
+                    startSession(usageOf(event.getPackageName()), time_ms);
+                    continue;
+                }
+                if (event_type == UsageEvents.Event.MOVE_TO_BACKGROUND) {
+                    endSession(usageOf(event.getPackageName()), time_ms);
+                    continue;
+                }
+            }
+
+            if (event_type == UsageEvents.Event.SCREEN_NON_INTERACTIVE
+                || event_type == UsageEvents.Event.DEVICE_SHUTDOWN)
+            {
+                for (Usage usage : m_usage.values()) {
+                    usage.resumed_activities.clear();
+                    endSession(usage, time_ms);
+                }
+            }
+        }
+
+        // Count the sessions still running up to now, but continue them on the next call
+        for (Usage usage : m_usage.values()) {
+            if (usage.foreground_since_ms >= 0) {
+                endSession(usage, end_ms);
+                usage.foreground_since_ms = end_ms;
+            }
+        }
+        Log.i(TAG, "Imported " + event_count + " usage events");
+    }
+
+    private static void startSession(Usage usage, long time_ms) {
+        if (usage.foreground_since_ms < 0)
+            usage.foreground_since_ms = time_ms;
+        usage.last_used_ms = Math.max(usage.last_used_ms, time_ms);
+    }
+
+    private static void endSession(Usage usage, long time_ms) {
+        if (usage.foreground_since_ms < 0)
+            return;
+
+        usage.foreground_ms += Math.max(0, time_ms - usage.foreground_since_ms);
+        usage.last_used_ms = Math.max(usage.last_used_ms, time_ms);
+        usage.foreground_since_ms = -1;
+    }
+
+    private Usage usageOf(String package_name) {
+        Usage usage = m_usage.get(package_name);
+        if (usage == null) {
+            usage = new Usage();
+            m_usage.put(package_name, usage);
+        }
+        return usage;
+    }
+
+    private AppUsage toAppUsage() {
+        final String[] packages = new String[m_usage.size()];
+        final long[] values = new long[m_usage.size() * 2];
+
+        int i = 0;
+        for (Map.Entry<String, Usage> entry : m_usage.entrySet()) {
+            packages[i] = entry.getKey();
+            values[i * 2] = entry.getValue().foreground_ms;
+            values[i * 2 + 1] = entry.getValue().last_used_ms;
+            i++;
+        }
+        return new AppUsage(packages, values);
+    }
+
+
+    private void loadCache() {
+        if (!m_cache_file.isFile())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_cache_file)))) {
+            if (in.readInt() != CACHE_VERSION)
+                return;
+
+            final long watermark_ms = in.readLong();
+            final int count = in.readInt();
+            final HashMap<String, Usage> entries = new HashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                final String package_name = in.readUTF();
+                final Usage usage = new Usage();
+                usage.foreground_ms = in.readLong();
+                usage.last_used_ms = in.readLong();
+                usage.foreground_since_ms = in.readLong();
+                entries.put(package_name, usage);
+            }
+
+            m_usage.putAll(entries);
+            m_watermark_ms = watermark_ms;
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Could not read " + m_cache_file + ", usage stats will be imported again: " + ex);
+        }
+    }
+
+    // Written to a temporary file first, so a failed write keeps the previous state
+    private void saveCache() {
+        final File temp = new File(m_cache_file.getPath() + ".part");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(CACHE_VERSION);
+            out.writeLong(m_watermark_ms);
+            out.writeInt(m_usage.size());
+            for (Map.Entry<String, Usage> entry : m_usage.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().foreground_ms);
+                out.writeLong(entry.getValue().last_used_ms);
+                out.writeLong(entry.getValue().foreground_since_ms);
+            }
+        }
+        catch (IOException ex) {
+            Log.w(TAG, "Could not write " + m_cache_file + ": " + ex);
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(m_cache_file))
+            temp.delete();
+    }
+}
@@ -0,0 +1,163 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.pegasus_frontend.android;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// Minimal reader of the central directory of ZIP files. Unlike ZipFile,
+// it also tells where the data of an entry starts in the archive, so
+// stored (uncompressed) entries can be read in place.
+// ZIP64 and encrypted archives are not supported.
+final class ZipDirectory {
+    public static final int METHOD_STORED = 0;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int CDIR_SIGNATURE = 0x02014b50;
+    private static final int CDIR_HEADER_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final long ZIP64_MARKER = 0xffffffffL;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    public static final class Entry {
+        public final String name;
+        public final int method;
+        public final boolean encrypted;
+        public final long compressedSize;
+        public final long size;
+        private final long m_local_header_offset;
+
+        private Entry(String name, int method, boolean encrypted, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.encrypted = encrypted;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            m_local_header_offset = localHeaderOffset;
+        }
+
+        public boolean isDirectory() { return name.endsWith("/"); }
+    }
+
+
+    private ZipDirectory() {}
+
+
+    public static List<Entry> read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final long eocd_pos = findEndOfCentralDirectory(raf);
+            final byte[] eocd = readAt(raf, eocd_pos, EOCD_MIN_SIZE);
+            final int entry_count = u16(eocd, 10);
+            final long cdir_size = u32(eocd, 12);
+            final long cdir_offset = u32(eocd, 16);
+            if (entry_count == 0xffff || cdir_size == ZIP64_MARKER || cdir_offset == ZIP64_MARKER)
+                throw new IOException("ZIP64 archives are not supported");
+
+            final byte[] cdir = readAt(raf, cdir_offset, (int) cdir_size);
+            final List<Entry> entries = new ArrayList<>(entry_count);
+            final Charset utf8 = Charset.forName("UTF-8");
+
+            int pos = 0;
+            for (int i = 0; i < entry_count; i++) {
+                if (pos + CDIR_HEADER_SIZE > cdir.length || (int) u32(cdir, pos) != CDIR_SIGNATURE)
+                    throw new IOException("Corrupt ZIP central directory");
+
+                final int flags = u16(cdir, pos + 8);
+                final int method = u16(cdir, pos + 10);
+                final long compressed_size = u32(cdir, pos + 20);
+                final long size = u32(cdir, pos + 24);
+                final int name_len = u16(cdir, pos + 28);
+                final int extra_len = u16(cdir, pos + 30);
+                final int comment_len = u16(cdir, pos + 32);
+                final long local_offset = u32(cdir, pos + 42);
+                if (compressed_size == ZIP64_MARKER || size == ZIP64_MARKER || local_offset == ZIP64_MARKER)
+                    throw new IOException("ZIP64 archives are not supported");
+                if (pos + CDIR_HEADER_SIZE + name_len > cdir.length)
+                    throw new IOException("Corrupt ZIP central directory");
+
+                // NOTE: names without the UTF-8 flag are CP437, which is the same for ASCII
+                final String name = new String(cdir, pos + CDIR_HEADER_SIZE, name_len, utf8);
+                final boolean encrypted = (flags & 0x1) != 0;
+                entries.add(new Entry(name, method, encrypted, compressed_size, size, local_offset));
+
+                pos += CDIR_HEADER_SIZE + name_len + extra_len + comment_len;
+            }
+            return entries;
+        }
+    }
+
+    public static Entry find(List<Entry> entries, String name) {
+        for (Entry entry : entries) {
+            if (entry.name.equals(name))
+                return entry;
+        }
+        return null;
+    }
+
+    // Position of the entry's (possibly compressed) data in the archive
+    public static long dataOffset(File file, Entry entry) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final byte[] header = readAt(raf, entry.m_local_header_offset, LOCAL_HEADER_SIZE);
+            if ((int) u32(header, 0) != LOCAL_SIGNATURE)
+                throw new IOException("Corrupt ZIP local header for " + entry.name);
+
+            final int name_len = u16(header, 26);
+            final int extra_len = u16(header, 28);
+            return entry.m_local_header_offset + LOCAL_HEADER_SIZE + name_len + extra_len;
+        }
+    }
+
+
+    private static long findEndOfCentralDirectory(RandomAccessFile raf) throws IOException {
+        final long file_len = raf.length();
+        if (file_len < EOCD_MIN_SIZE)
+            throw new IOException("Not a ZIP file");
+
+        // The record is at the end of the file, followed by a comment of at most 64K
+        final int tail_len = (int) Math.min(file_len, EOCD_MIN_SIZE + MAX_COMMENT_SIZE);
+        final long tail_start = file_len - tail_len;
+        final byte[] tail = readAt(raf, tail_start, tail_len);
+        for (int pos = tail_len - EOCD_MIN_SIZE; pos >= 0; pos--) {
+            if ((int) u32(tail, pos) == EOCD_SIGNATURE)
+                return tail_start + pos;
+        }
+        throw new IOException("Not a ZIP file");
+    }
+
+    private static byte[] readAt(RandomAccessFile raf, long pos, int len) throws IOException {
+        final byte[] buf = new byte[len];
+        raf.seek(pos);
+        raf.readFully(buf);
+        return buf;
+    }
+
+    private static int u16(byte[] buf, int pos) {
+        return (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8);
+    }
+
+    private static long u32(byte[] buf, int pos) {
+        return (u16(buf, pos) | ((long) u16(buf, pos + 2) << 16)) & 0xffffffffL;
+    }
+}
@@ -0,0 +1,132 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.pegasus_frontend.android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+
+// Makes every display choice recorded by LaunchTrace again with the current
+// DisplayPlanner, on a plain JVM, and reports the ones that differ. The trace
+// records all inputs of a choice (the displays, the current and requested
+// display and the affinity), so no Android code has to run for this.
+// This is not a replay of the scans and launches themselves, and it does not
+// measure anything; the device times in the trace are only printed for reference.
+//
+// Compile and run from src/app/platform/android with
+//   javac -encoding UTF-8 -d out -sourcepath src tools/src/org/pegasus_frontend/android/*.java
+//   java -cp out org.pegasus_frontend.android.DisplayChoiceCheck <trace file>
+// The exit code is 2 if a display choice differs from the recorded one,
+// and 3 on invalid arguments or traces.
+final class DisplayChoiceCheck {
+    private int m_app_list_count = 0;
+    private int m_launch_count = 0;
+    private int m_display_choice_count = 0;
+    private int m_mismatch_count = 0;
+    private long m_recorded_scan_ns = 0;
+    private long m_recorded_launch_ns = 0;
+
+
+    private DisplayChoiceCheck() {}
+
+
+    public static void main(String[] argv) {
+        if (argv.length != 1) {
+            System.err.println("Usage: DisplayChoiceCheck <trace file>");
+            System.exit(3);
+        }
+
+        final File trace_file = new File(argv[0]);
+        final DisplayChoiceCheck check = new DisplayChoiceCheck();
+        try {
+            check.load(LaunchTraceReader.read(trace_file));
+        }
+        catch (IOException | RuntimeException ex) {
+            System.err.println("Could not read " + trace_file + ": " + ex);
+            System.exit(3);
+        }
+
+        System.exit(check.report());
+    }
+
+
+    private void load(List<String[]> lines) {
+        for (String[] fields : lines) {
+            switch (fields[0]) {
+                case LaunchTrace.APP_LIST:
+                    m_app_list_count++;
+                    m_recorded_scan_ns += Long.parseLong(fields[1]);
+                    break;
+                case LaunchTrace.SDCARD_PATHS:
+                    m_recorded_scan_ns += Long.parseLong(fields[1]);
+                    break;
+                case LaunchTrace.DISPLAYS:
+                    checkDisplayChoice(fields);
+                    break;
+                case LaunchTrace.LAUNCH:
+                    m_launch_count++;
+                    m_recorded_launch_ns += Long.parseLong(fields[1]);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void checkDisplayChoice(String[] fields) {
+        final int current_display_id = Integer.parseInt(fields[2]);
+        final Integer requested = "-".equals(fields[3]) ? null : Integer.valueOf(fields[3]);
+        final Integer affinity = "-".equals(fields[4]) ? null : Integer.valueOf(fields[4]);
+        final int recorded = Integer.parseInt(fields[5]);
+        final int[] display_ids = parseInts(fields, 6);
+
+        final int chosen = DisplayPlanner.chooseDisplayId(display_ids, current_display_id, requested, affinity);
+        m_display_choice_count++;
+        if (chosen != recorded) {
+            m_mismatch_count++;
+            System.err.println("Display choice for " + fields[1] + " differs: recorded " + recorded + ", now " + chosen
+                + " (current " + current_display_id + ", requested " + fields[3] + ", affinity " + fields[4] + ")");
+        }
+    }
+
+    private int report() {
+        System.out.println(m_app_list_count + " app lists, " + m_launch_count + " launches, "
+            + m_display_choice_count + " display choices");
+        if (m_app_list_count > 0)
+            System.out.printf("Recorded on the device: %.3f ms per scan%n", m_recorded_scan_ns / 1e6 / m_app_list_count);
+        if (m_launch_count > 0)
+            System.out.printf("Recorded on the device: %.3f ms per launch%n", m_recorded_launch_ns / 1e6 / m_launch_count);
+
+        if (m_mismatch_count > 0) {
+            System.err.println(m_mismatch_count + " display choices differ");
+            return 2;
+        }
+        if (m_display_choice_count > 0)
+            System.out.println("All display choices match");
+        return 0;
+    }
+
+
+    private static int[] parseInts(String[] fields, int from) {
+        final int[] out = new int[Math.max(0, fields.length - from)];
+        for (int i = 0; i < out.length; i++)
+            out[i] = Integer.parseInt(fields[from + i]);
+        return out;
+    }
+}
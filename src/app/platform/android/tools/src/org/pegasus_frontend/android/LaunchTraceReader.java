@@ -0,0 +1,75 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.pegasus_frontend.android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// Reads the traces written by LaunchTrace, see there for the format.
+// NOTE: this is only used by the tools, and is not built into the app
+final class LaunchTraceReader {
+    private LaunchTraceReader() {}
+
+
+    // Returns the lines of the trace split to fields
+    public static List<String[]> read(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if (!LaunchTrace.HEADER.equals(reader.readLine()))
+                throw new IOException(file + " is not a trace file of a supported version");
+
+            final List<String[]> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+
+                final String[] fields = line.split("\t", -1);
+                for (int i = 0; i < fields.length; i++)
+                    fields[i] = unescape(fields[i]);
+                lines.add(fields);
+            }
+            return lines;
+        }
+    }
+
+
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0)
+            return field;
+
+        final StringBuilder out = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            final char c = field.charAt(i);
+            if (c != '\\' || i + 1 == field.length()) {
+                out.append(c);
+                continue;
+            }
+
+            final char next = field.charAt(++i);
+            out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+        }
+        return out.toString();
+    }
+}
@@ -24,6 +24,10 @@
 #include "ScriptRunner.h"
 #include "Paths.h"
 #include "platform/PowerCommands.h"
+#ifdef Q_OS_ANDROID
+#include "platform/AndroidHelpers.h"
+#include "platform/AndroidNativeEvents.h"
+#endif
 #include "types/AppCloseType.h"
 
 // For type registration
@@ -38,6 +42,7 @@
 #include "SortFilterProxyModel/proxyroles/proxyrolesqmltypes.h"
 #include "SortFilterProxyModel/sorters/sortersqmltypes.h"
 
+#include <QElapsedTimer>
 #include <QGuiApplication>
 #include <QQmlEngine>
 
@@ -114,6 +119,11 @@ void on_app_close(AppCloseType type)
         default: break;
     }
 
+#ifdef Q_OS_ANDROID
+    for (const QString& line : android::helper_metrics_report())
+        Log::info(LOGMSG("Java helpers"), line);
+#endif
+
     Log::info(LOGMSG("Closing Pegasus, goodbye!"));
     Log::close();
 
@@ -152,6 +162,10 @@ Backend::~Backend()
 
 Backend::Backend(const CliArgs& args)
     : m_args(args)
+#ifdef Q_OS_ANDROID
+    , m_scan_deferred(false)
+    , m_in_background(false)
+#endif
 {
     // Make sure this comes before any file related operations
     AppSettings::general.portable = args.portable;
@@ -164,6 +178,10 @@ Backend::Backend(const CliArgs& args)
     AppSettings::load_providers();
     AppSettings::load_config();
 
+#ifdef Q_OS_ANDROID
+    android::NativeEvents::instance().registerNatives();
+#endif
+
     m_api_public = new model::ApiObject(args);
     m_api_private = new model::Internal(args);
     m_frontend = new FrontendLayer(m_api_public, m_api_private);
@@ -177,6 +195,8 @@ Backend::Backend(const CliArgs& args)
     // the Api asks the Launcher to start the game
     QObject::connect(m_api_public, &model::ApiObject::launchGameFile,
                      m_launcher, &ProcessLauncher::onLaunchRequested);
+    QObject::connect(m_api_public, &model::ApiObject::prepareGameFile,
+                     m_launcher, &ProcessLauncher::onPrepareRequested);
 
     // the Launcher tries to start the game, ask the Frontend
     // to tear down the UI, then report back to the Api
@@ -239,6 +259,19 @@ Backend::Backend(const CliArgs& args)
 
     // quit/reboot/shutdown request
     QObject::connect(&m_api_private->system(), &model::System::appCloseRequested, on_app_close);
+
+#ifdef Q_OS_ANDROID
+    // scans requested while a game is starting are run when the frontend is back
+    QObject::connect(&android::NativeEvents::instance(), &android::NativeEvents::yieldingChanged,
+                     [this](){
+                         if (m_scan_deferred && !android::NativeEvents::instance().yielding())
+                             onScanRequested();
+                     });
+
+    // background and return
+    QObject::connect(qApp, &QGuiApplication::applicationStateChanged,
+                     [this](Qt::ApplicationState state){ onApplicationStateChanged(state); });
+#endif
 }
 
 void Backend::start()
@@ -250,6 +283,14 @@ void Backend::start()
 
 void Backend::onScanRequested()
 {
+#ifdef Q_OS_ANDROID
+    m_scan_deferred = android::NativeEvents::instance().yielding();
+    if (m_scan_deferred) {
+        Log::info(LOGMSG("Game scan deferred until the launched game returns"));
+        return;
+    }
+#endif
+
     m_api_public->clearGameData();
     m_providerman->run();
 }
@@ -288,4 +329,32 @@ void Backend::onProcessFinished()
     m_api_private->gamepad().start(m_args);
 }
 
+#ifdef Q_OS_ANDROID
+void Backend::onApplicationStateChanged(Qt::ApplicationState state)
+{
+    // NOTE: Qt reports the stopped activity as hidden or suspended, depending on the version
+    const bool in_background = state == Qt::ApplicationHidden || state == Qt::ApplicationSuspended;
+    if (in_background == m_in_background)
+        return;
+
+    m_in_background = in_background;
+    if (in_background) {
+        Log::info(LOGMSG("Lifecycle"), LOGMSG("Moved to the background, releasing resources"));
+        m_frontend->releaseResources();
+        return;
+    }
+
+    QElapsedTimer return_timer;
+    return_timer.start();
+    m_frontend->afterNextFrame([return_timer](){
+        const qint64 elapsed_ms = return_timer.elapsed();
+
+        // this may be the render thread
+        QMetaObject::invokeMethod(qApp, [elapsed_ms](){
+            Log::info(LOGMSG("Lifecycle"), LOGMSG("Interactive again %1 ms after returning").arg(elapsed_ms));
+        }, Qt::QueuedConnection);
+    });
+}
+#endif
+
 } // namespace backend
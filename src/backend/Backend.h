@@ -49,6 +49,10 @@ private:
     FrontendLayer* m_frontend;
     ProcessLauncher* m_launcher;
     ProviderManager* m_providerman;
+#ifdef Q_OS_ANDROID
+    bool m_scan_deferred;
+    bool m_in_background;
+#endif
 
     void onScanRequested();
     void onScanFinished();
@@ -56,6 +60,9 @@ private:
     void onDislikesChanged(); 
     void onProcessLaunched();
     void onProcessFinished();
+#ifdef Q_OS_ANDROID
+    void onApplicationStateChanged(Qt::ApplicationState);
+#endif
 };
 
 } // namespace backend
@@ -28,6 +28,9 @@
 #include <QQmlApplicationEngine>
 #include <QQmlContext>
 #include <QQmlNetworkAccessManagerFactory>
+#include <QQuickWindow>
+
+#include <memory>
 
 
 namespace {
@@ -93,3 +96,38 @@ void FrontendLayer::clearCache()
     Q_ASSERT(m_engine);
     m_engine->clearComponentCache();
 }
+
+void FrontendLayer::releaseResources()
+{
+    if (!m_engine)
+        return;
+
+    m_engine->collectGarbage();
+    m_engine->trimComponentCache();
+
+    QQuickWindow* const window = mainWindow();
+    if (window)
+        window->releaseResources();
+}
+
+void FrontendLayer::afterNextFrame(std::function<void()> callback)
+{
+    QQuickWindow* const window = mainWindow();
+    if (!window)
+        return;
+
+    const auto connection = std::make_shared<QMetaObject::Connection>();
+    *connection = connect(window, &QQuickWindow::frameSwapped, window, [connection, callback]{
+        if (QObject::disconnect(*connection))
+            callback();
+    }, Qt::DirectConnection);
+    window->update();
+}
+
+QQuickWindow* FrontendLayer::mainWindow() const
+{
+    if (!m_engine || m_engine->rootObjects().isEmpty())
+        return nullptr;
+
+    return qobject_cast<QQuickWindow*>(m_engine->rootObjects().constFirst());
+}
@@ -18,8 +18,10 @@
 #pragma once
 
 #include <QObject>
+#include <functional>
 
 class QQmlApplicationEngine;
+class QQuickWindow;
 
 
 /// Manages the dynamic reload of the frontend layer
@@ -42,11 +44,19 @@ public:
 
     void clearCache();
 
+    // Frees what can be recreated on demand, eg. while the app is in the background
+    void releaseResources();
+    // Calls the function once, after the next frame was shown;
+    // it may run on the render thread
+    void afterNextFrame(std::function<void()>);
+
 signals:
     void rebuildComplete();
     void teardownComplete();
 
 private:
+    QQuickWindow* mainWindow() const;
+
     QObject* const m_api_public;
     QObject* const m_api_private;
     QQmlApplicationEngine* m_engine;
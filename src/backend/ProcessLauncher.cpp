@@ -28,6 +28,7 @@
 #include "platform/AndroidHelpers.h"
 #endif
 
+#include <QtConcurrent/QtConcurrent>
 #include <QDir>
 #include <QUrl>
 #include <QRegularExpression>
@@ -77,6 +78,14 @@ void replace_variables(QString& param, const QFileInfo& finfo)
 #ifdef Q_OS_ANDROID
     const QString document_uri_str = android::to_document_uri(abs_path);
     param.replace(QLatin1String("{file.documenturi}"), document_uri_str);
+
+    // Reading the archive is not free, so only do it when needed
+    const QLatin1String archive_uri_var("{file.archiveuri}");
+    if (param.contains(archive_uri_var))
+        param.replace(archive_uri_var, android::to_archive_member_uri(abs_path, QString()));
+    const QLatin1String direct_archive_uri_var("{file.archiveuri.direct}");
+    if (param.contains(direct_archive_uri_var))
+        param.replace(direct_archive_uri_var, android::to_archive_member_uri(abs_path, QString(), true));
 #endif
 
     replace_env_vars(param);
@@ -135,8 +144,38 @@ QString pretty_android_exception(const QString& error)
 }
 #endif // Q_OS_ANDROID
 
+// 游戏选中后延迟多久再预备启动（光标快速移动时只处理最后一个）
+static constexpr int PREPARE_DELAY_MS = 150;
+// 预备结果的有效期，与 Java 端一致
+static constexpr qint64 PREPARED_TTL_MS = 30000;
+
+QString raw_launch_cmd(const model::GameFile& gamefile)
+{
+    const model::Game& game = *gamefile.parentGame();
+
+    // TODO: in the future, check the gamefile's own launch command first
+
+#if defined(Q_OS_LINUX) && defined(PEGASUS_INSIDE_FLATPAK)
+    return QLatin1String("flatpak-spawn --host ") + game.launchCmd();
+#else
+    return game.launchCmd();
+#endif
+}
+
+// 启动命令分词并替换占位符，结果的第一项是命令本身。
+// NOTE: 在 Android 上替换占位符需要 JNI 调用，可能还要读取压缩包，所以也会在后台线程中调用
+QStringList expand_launch_args(const QString& raw_launch_cmd, const QFileInfo& finfo)
+{
+    QStringList args = ::utils::tokenize_command(raw_launch_cmd);
+    for (QString& arg : args)
+        replace_variables(arg, finfo);
+
+    return args;
+}
+
 } // namespace
 
+
 namespace helpers {
 
 QString abs_launchcmd(const QString& cmd, const QString& base_dir)
@@ -166,27 +205,100 @@ QString abs_workdir(const QString& workdir, const QString& base_dir, const QStri
 ProcessLauncher::ProcessLauncher(QObject* parent)
     : QObject(parent)
     , m_process(nullptr)
-{}
+    , m_prepare_generation(0)
+{
+    m_prepare_timer.setSingleShot(true);
+    m_prepare_timer.setInterval(PREPARE_DELAY_MS);
+    connect(&m_prepare_timer, &QTimer::timeout, this, &ProcessLauncher::prepareLaunch);
 
-void ProcessLauncher::onLaunchRequested(const model::GameFile* q_gamefile)
+    // 一次只准备一个启动，排队中的过期请求会直接跳过
+    m_prepare_pool.setMaxThreadCount(1);
+}
+
+ProcessLauncher::~ProcessLauncher()
+{
+    m_prepare_generation++;
+    m_prepare_pool.waitForDone();
+}
+
+void ProcessLauncher::onPrepareRequested(model::GameFile* q_gamefile)
 {
     Q_ASSERT(q_gamefile);
 
-    const model::GameFile& gamefile = *q_gamefile;
-    const model::Game& game = *gamefile.parentGame();
+    if (m_prepared_gamefile == q_gamefile && m_prepared_age.isValid() && !m_prepared_age.hasExpired(PREPARED_TTL_MS))
+        return;
 
-    const QString raw_launch_cmd =
-#if defined(Q_OS_LINUX) && defined(PEGASUS_INSIDE_FLATPAK)
-        QLatin1String("flatpak-spawn --host ") + game.launchCmd();
-#else
-        game.launchCmd();
+    m_prepare_gamefile = q_gamefile;
+    m_prepare_timer.start();
+}
+
+void ProcessLauncher::prepareLaunch()
+{
+    model::GameFile* const gamefile = m_prepare_gamefile.data();
+    m_prepare_gamefile.clear();
+    if (!gamefile || m_process)
+        return;
+
+    // 新的请求使之前还没完成的准备作废
+    const quint64 generation = ++m_prepare_generation;
+    const QString launch_cmd = raw_launch_cmd(*gamefile);
+    const QFileInfo finfo = gamefile->fileinfo();
+    const QPointer<model::GameFile> gamefile_ptr(gamefile);
+
+    QtConcurrent::run(&m_prepare_pool, [this, generation, launch_cmd, finfo, gamefile_ptr]{
+        if (m_prepare_generation.load() != generation)
+            return;
+
+        const QStringList args = expand_launch_args(launch_cmd, finfo);
+
+#ifdef Q_OS_ANDROID
+        // 与 onLaunchRequested 相同，只处理 "am start ..."，交给 Java 端解析 Intent
+        const bool android_command_valid = args.size() >= 2
+            && args.at(0).toLower() == QLatin1String("am")
+            && args.at(1).toLower() == QLatin1String("start");
+        if (android_command_valid && m_prepare_generation.load() == generation)
+            android::prepare_activity_from_am_args(args.mid(1));
 #endif
 
-    // TODO: in the future, check the gamefile's own launch command first
+        QMetaObject::invokeMethod(this, [this, generation, gamefile_ptr, args]{
+            if (m_prepare_generation.load() != generation || !gamefile_ptr)
+                return;
 
-    QStringList args = ::utils::tokenize_command(raw_launch_cmd);
-    for (QString& arg : args)
-        replace_variables(arg, gamefile.fileinfo());
+            m_prepared_args = args;
+            m_prepared_gamefile = gamefile_ptr;
+            m_prepared_age.start();
+        }, Qt::QueuedConnection);
+    });
+}
+
+QStringList ProcessLauncher::takePreparedArgs(const model::GameFile* q_gamefile)
+{
+    m_prepare_timer.stop();
+    m_prepare_gamefile.clear();
+    // 还在进行中的准备不再需要了
+    m_prepare_generation++;
+
+    QStringList args;
+    const bool fresh = m_prepared_age.isValid() && !m_prepared_age.hasExpired(PREPARED_TTL_MS);
+    if (fresh && m_prepared_gamefile.data() == q_gamefile)
+        args.swap(m_prepared_args);
+
+    m_prepared_args.clear();
+    m_prepared_gamefile.clear();
+    m_prepared_age.invalidate();
+    return args;
+}
+
+void ProcessLauncher::onLaunchRequested(const model::GameFile* q_gamefile)
+{
+    Q_ASSERT(q_gamefile);
+
+    const model::GameFile& gamefile = *q_gamefile;
+    const model::Game& game = *gamefile.parentGame();
+
+    QStringList args = takePreparedArgs(q_gamefile);
+    if (args.isEmpty())
+        args = expand_launch_args(raw_launch_cmd(gamefile), gamefile.fileinfo());
 
     QString command = args.isEmpty() ? QString() : args.takeFirst();
     if (command.isEmpty()) {
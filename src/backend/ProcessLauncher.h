@@ -17,8 +17,14 @@
 
 #pragma once
 
+#include <QElapsedTimer>
 #include <QObject>
+#include <QPointer>
 #include <QProcess>
+#include <QThreadPool>
+#include <QTimer>
+
+#include <atomic>
 
 namespace model { class GameFile; }
 
@@ -37,6 +43,7 @@ class ProcessLauncher : public QObject {
 
 public:
     explicit ProcessLauncher(QObject* parent = nullptr);
+    ~ProcessLauncher();
 
 signals:
     void processLaunchOk();
@@ -46,9 +53,11 @@ signals:
 
 public slots:
     void onLaunchRequested(const model::GameFile*);
+    void onPrepareRequested(model::GameFile*);
     void onTeardownComplete();
 
 private slots:
+    void prepareLaunch();
     void onProcessStarted();
     void onProcessError(QProcess::ProcessError);
     void onProcessFinished(int, QProcess::ExitStatus);
@@ -56,6 +65,18 @@ private slots:
 private:
     QProcess* m_process;
 
+    // Launch preparation for the focused game, see onPrepareRequested()
+    QTimer m_prepare_timer;
+    QPointer<model::GameFile> m_prepare_gamefile;
+    QPointer<model::GameFile> m_prepared_gamefile;
+    QStringList m_prepared_args;
+    QElapsedTimer m_prepared_age;
+    // The preparation runs on m_prepare_pool; only the latest request's result is kept
+    std::atomic<quint64> m_prepare_generation;
+    QThreadPool m_prepare_pool;
+
+    QStringList takePreparedArgs(const model::GameFile*);
+
     void runProcess(const QString&, const QStringList&, const QString&);
 
     void beforeRun(const QString&);
@@ -60,6 +60,8 @@ void ApiObject::setGameData(std::vector<model::Collection*>&& collections, std::
         for (model::GameFile* const gamefile : game->filesModel()->entries()) {
             connect(gamefile, &model::GameFile::launchRequested,
                     this, &ApiObject::onGameFileLaunchRequested);
+            connect(gamefile, &model::GameFile::launchPrepareRequested,
+                    this, &ApiObject::onGameFilePrepareRequested);
         }
     }
 
@@ -90,6 +92,14 @@ void ApiObject::onGameFileLaunchRequested()
     emit launchGameFile(m_launch_game_file);
 }
 
+void ApiObject::onGameFilePrepareRequested()
+{
+    if (m_launch_game_file)
+        return;
+
+    emit prepareGameFile(static_cast<model::GameFile*>(QObject::sender()));
+}
+
 void ApiObject::onGameLaunchOk()
 {
     Q_ASSERT(m_launch_game_file);
@@ -62,6 +62,7 @@ signals:
 
     // user actions
     void launchGameFile(const model::GameFile*);
+    void prepareGameFile(model::GameFile*);
     void launchFailed(QString);
     void gameFileFinished(model::GameFile* const);
     void gameFileLaunched(model::GameFile* const);
@@ -92,6 +93,7 @@ private slots:
     void onGameDislikeChanged();
     void onGameFileSelectorRequested();
     void onGameFileLaunchRequested();
+    void onGameFilePrepareRequested();
 
 private:
     // game launching
@@ -21,6 +21,8 @@
 #include <SDL.h>
 #elif defined(Q_OS_ANDROID)
 #include "platform/AndroidHelpers.h"
+#include "platform/AndroidNativeEvents.h"
+#include <QGuiApplication>
 #include <QtAndroidExtras/QAndroidJniEnvironment>
 #include <QtAndroidExtras/QAndroidJniObject>
 #endif
@@ -93,10 +95,23 @@ namespace model {
 DeviceInfo::DeviceInfo(QObject* parent)
     : QObject(parent)
     , m_battery { BatteryStatus::Unknown, NAN, 0 }
+    , m_thermal_status(ThermalStatus::Unknown)
+    , m_yielding(false)
 {
     poll_battery();
     connect(&m_battery_poll, &QTimer::timeout, this, &DeviceInfo::poll_battery);
     m_battery_poll.start(30 * 1000);
+
+#if defined(Q_OS_ANDROID) && !defined(WITH_SDL_POWER)
+    const android::NativeEvents& native_events = android::NativeEvents::instance();
+    connect(&native_events, &android::NativeEvents::thermalStatusChanged,
+            this, &DeviceInfo::update_power_state);
+    connect(&native_events, &android::NativeEvents::yieldingChanged,
+            this, &DeviceInfo::update_power_state);
+    connect(qApp, &QGuiApplication::applicationStateChanged,
+            this, &DeviceInfo::update_power_state);
+    update_power_state();
+#endif
 }
 
 void DeviceInfo::poll_battery()
@@ -114,4 +129,36 @@ void DeviceInfo::poll_battery()
     if (value_changed)
         emit batteryLifeChanged();
 }
+
+void DeviceInfo::update_power_state()
+{
+#if defined(Q_OS_ANDROID) && !defined(WITH_SDL_POWER)
+    const android::NativeEvents& native_events = android::NativeEvents::instance();
+
+    // Unknown is -1 on the Java side
+    const auto thermal_status = static_cast<ThermalStatus>(
+        qBound(-1, native_events.thermalStatus(), 6) + 1);
+    if (m_thermal_status != thermal_status) {
+        m_thermal_status = thermal_status;
+        emit thermalStatusChanged();
+    }
+
+    if (m_yielding != native_events.yielding()) {
+        m_yielding = native_events.yielding();
+        emit yieldingChanged();
+    }
+
+    // The battery can wait while a game is running or the app is in the background
+    const Qt::ApplicationState app_state = QGuiApplication::applicationState();
+    const bool in_background = app_state == Qt::ApplicationHidden || app_state == Qt::ApplicationSuspended;
+    const bool poll_paused = m_yielding || in_background;
+    if (poll_paused && m_battery_poll.isActive()) {
+        m_battery_poll.stop();
+    }
+    else if (!poll_paused && !m_battery_poll.isActive()) {
+        poll_battery();
+        m_battery_poll.start();
+    }
+#endif
+}
 } // namespace model
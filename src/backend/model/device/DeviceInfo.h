@@ -30,6 +30,8 @@ class DeviceInfo : public QObject {
     Q_PROPERTY(bool batteryCharging READ batteryCharging NOTIFY batteryStatusChanged)
     Q_PROPERTY(float batteryPercent READ batteryPercent NOTIFY batteryLifeChanged)
     Q_PROPERTY(int batterySeconds READ batterySeconds NOTIFY batteryLifeChanged)
+    Q_PROPERTY(ThermalStatus thermalStatus READ thermalStatus NOTIFY thermalStatusChanged)
+    Q_PROPERTY(bool yielding READ yielding NOTIFY yieldingChanged)
 
 public:
     explicit DeviceInfo(QObject* parent = nullptr);
@@ -43,6 +45,19 @@ public:
     };
     Q_ENUM(BatteryStatus)
 
+    // Same as the Android thermal status levels
+    enum class ThermalStatus {
+        Unknown,
+        None,
+        Light,
+        Moderate,
+        Severe,
+        Critical,
+        Emergency,
+        Shutdown,
+    };
+    Q_ENUM(ThermalStatus)
+
     struct BatteryInfo {
         BatteryStatus status;
         float percent;
@@ -56,15 +71,25 @@ public:
     float batteryPercent() const { return m_battery.percent; }
     int batterySeconds() const { return m_battery.seconds; }
 
+    ThermalStatus thermalStatus() const { return m_thermal_status; }
+    // True while a launched game is starting or running; themes may want
+    // to pause their animations and other background work during this
+    bool yielding() const { return m_yielding; }
+
 signals:
     void batteryStatusChanged();
     void batteryLifeChanged();
+    void thermalStatusChanged();
+    void yieldingChanged();
 
 private slots:
     void poll_battery();
+    void update_power_state();
 
 private:
     QTimer m_battery_poll;
     BatteryInfo m_battery;
+    ThermalStatus m_thermal_status;
+    bool m_yielding;
 };
 } // namespace model
@@ -130,6 +130,13 @@ void Game::launch()
         emit launchFileSelectorRequested();
 }
 
+void Game::prepareLaunch()
+{
+    // with multiple files it's not known yet which one will be launched
+    if (m_files->count() == 1)
+        m_files->entries().front()->prepareLaunch();
+}
+
 Game& Game::setFiles(std::vector<model::GameFile*>&& files)
 {
     for (model::GameFile* const gamefile : files) {
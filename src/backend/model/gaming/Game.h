@@ -206,6 +206,7 @@ public:
     explicit Game(QString name, QObject* parent = nullptr);
 
     Q_INVOKABLE void launch();
+    Q_INVOKABLE void prepareLaunch();
 
     void finalize();
 };
@@ -54,6 +54,11 @@ void GameFile::launch()
     emit launchRequested();
 }
 
+void GameFile::prepareLaunch()
+{
+    emit launchPrepareRequested();
+}
+
 void GameFile::update_playstats(int playcount, qint64 playtime, QDateTime last_played)
 {
     m_data.playstats.last_played = std::max(m_data.playstats.last_played, std::move(last_played));
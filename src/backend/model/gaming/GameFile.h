@@ -78,11 +78,14 @@ public:
     model::Game* parentGame() const;
 
     Q_INVOKABLE void launch();
+    // Hint that the file will likely be launched soon (eg. it got focus)
+    Q_INVOKABLE void prepareLaunch();
 
     void update_playstats(int playcount, qint64 playtime, QDateTime last_played);
 
 signals:
     void launchRequested();
+    void launchPrepareRequested();
     void playStatsChanged();
 
 private:
@@ -18,6 +18,11 @@
 #include "GamepadManagerQt.h"
 
 #include "types/GamepadKeyId.h"
+#ifdef Q_OS_ANDROID
+#include "platform/AndroidNativeEvents.h"
+
+#include <algorithm>
+#endif
 
 
 namespace {
@@ -67,6 +72,9 @@ namespace model {
 
 GamepadManagerQt::GamepadManagerQt(QObject* parent)
     : GamepadManagerBackend(parent)
+#ifdef Q_OS_ANDROID
+    , m_frame_requested(false)
+#endif
 {
     connect(QGamepadManager::instance(), &QGamepadManager::gamepadConnected,
             this, &GamepadManagerQt::fwd_connection);
@@ -107,6 +115,11 @@ GamepadManagerQt::GamepadManagerQt(QObject* parent)
     SET_GAMEPAD_KEY(Start, START);
     SET_GAMEPAD_KEY(Guide, GUIDE);
     #undef SET_GAMEPAD_KEY
+
+    // 4 axes of a few devices
+    m_pending_axes.reserve(16);
+    connect(&android::NativeEvents::instance(), &android::NativeEvents::gamepadFrame,
+            this, &GamepadManagerQt::flush_axis_events);
 #endif
 }
 
@@ -131,10 +144,46 @@ void GamepadManagerQt::fwd_button_release(int device_id, QGamepadManager::Gamepa
     emit buttonChanged(device_id, translate_button(button), false);
 }
 
+// NOTE: the axes arrive already mapped by QtGamepad, so user configured mappings apply
 void GamepadManagerQt::fwd_axis_event(int device_id, QGamepadManager::GamepadAxis axis, double value)
 {
-    emit axisChanged(device_id, translate_axis(axis), value);
+    const GamepadAxis model_axis = translate_axis(axis);
+
+#ifdef Q_OS_ANDROID
+    // NOTE: Controllers may report many times per frame, so on Android the
+    //       positions are held back until the next vsync, see GamepadInput.java.
+    //       The frame signal is posted after the motion events that Qt has
+    //       already queued, so it doesn't overtake their values.
+    const auto it = std::find_if(m_pending_axes.begin(), m_pending_axes.end(),
+        [device_id, model_axis](const PendingAxis& entry){
+            return entry.device_id == device_id && entry.axis == model_axis;
+        });
+    if (it != m_pending_axes.end()) {
+        it->value = value;
+        return;
+    }
+    m_pending_axes.push_back({ device_id, model_axis, value });
+
+    if (!m_frame_requested)
+        m_frame_requested = android::NativeEvents::instance().requestGamepadFrame();
+    if (!m_frame_requested)
+        flush_axis_events();
+#else
+    emit axisChanged(device_id, model_axis, value);
+#endif
+}
+
+#ifdef Q_OS_ANDROID
+void GamepadManagerQt::flush_axis_events()
+{
+    m_frame_requested = false;
+
+    // NOTE: the signal handlers don't call back here, so the entries stay in place
+    for (const PendingAxis& entry : m_pending_axes)
+        emit axisChanged(entry.device_id, entry.axis, entry.value);
+    m_pending_axes.clear();
 }
+#endif
 
 void GamepadManagerQt::fwd_button_cfg(int device_id, QGamepadManager::GamepadButton button)
 {
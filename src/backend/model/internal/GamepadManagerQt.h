@@ -22,6 +22,7 @@
 #include <QGamepadManager>
 #ifdef Q_OS_ANDROID
 #include <QGamepadKeyNavigation>
+#include <vector>
 #endif
 
 
@@ -44,6 +45,17 @@ private slots:
 private:
 #ifdef Q_OS_ANDROID
     QGamepadKeyNavigation padkeynav;
+
+    // The latest stick positions since the last frame
+    struct PendingAxis {
+        int device_id;
+        GamepadAxis axis;
+        double value;
+    };
+    std::vector<PendingAxis> m_pending_axes;
+    bool m_frame_requested;
+
+    void flush_axis_events();
 #endif
 };
 
@@ -19,37 +19,100 @@
 
 #include <QtAndroidExtras/QAndroidJniEnvironment>
 #include <QtAndroidExtras/QAndroidJniObject>
+#include <QByteArray>
+
+#include <algorithm>
+#include <cstring>
+
+
+namespace {
+// NOTE: QML keeps its own cache of the images in use, this only
+//       has to cover the icons requested again after that
+constexpr int ICON_CACHE_KIB = 16 * 1024;
+
+int pixmap_cost_kib(const QPixmap& pixmap)
+{
+    return std::max(1, pixmap.width() * pixmap.height() * pixmap.depth() / 8 / 1024);
+}
+} // namespace
 
 
 AndroidAppIconProvider::AndroidAppIconProvider()
     : QQuickImageProvider(QQuickImageProvider::Pixmap)
+    , m_icons_by_hash(ICON_CACHE_KIB)
 {}
 
 QPixmap AndroidAppIconProvider::requestPixmap(const QString& id, QSize*, const QSize&)
 {
     static constexpr auto JNI_CLASS = "org/pegasus_frontend/android/MainActivity";
-    static constexpr auto APPICON_METHOD = "appIcon";
-    static constexpr auto APPICON_SIGNATURE = "(Ljava/lang/String;)[B";
+    static constexpr auto APPICON_METHOD = "appIconInto";
+    static constexpr auto APPICON_SIGNATURE = "(Ljava/lang/String;Ljava/nio/ByteBuffer;)I";
     static constexpr auto APPICON_FMT = "PNG";
+    static constexpr int INITIAL_BUFFER_SIZE = 64 * 1024;
+    static constexpr int HEADER_SIZE = sizeof(quint64); // content hash
+    static const QString DEFAULT_ICON_ID(QStringLiteral("default"));
+
+    if (id == DEFAULT_ICON_ID) {
+        QMutexLocker lock(&m_mutex);
+        if (!m_default_icon.isNull())
+            return m_default_icon;
+    }
+
+    // The hash and the PNG data are written into this buffer by the Java side;
+    // it is kept between calls, together with its Java wrapper
+    struct IconBuffer {
+        QByteArray data;
+        QAndroidJniObject jni_buffer;
+    };
+    thread_local IconBuffer buffer;
 
     QAndroidJniEnvironment jni_env;
     const auto jni_packagename = QAndroidJniObject::fromString(id);
-    const auto jni_iconbytes_raw = QAndroidJniObject::callStaticObjectMethod(JNI_CLASS,
-                                                                             APPICON_METHOD, APPICON_SIGNATURE,
-                                                                             jni_packagename.object<jstring>());
-    const auto jni_iconbytes_arr = jni_iconbytes_raw.object<jbyteArray>();
-    if (!jni_iconbytes_arr)
-        return QPixmap();
 
-    const auto jni_iconbytes_len = jni_env->GetArrayLength(jni_iconbytes_arr);
-    if (jni_iconbytes_len <= 0)
-        return QPixmap();
+    const auto request_into_buffer = [&](int capacity) -> jint {
+        if (buffer.data.size() < capacity || !buffer.jni_buffer.isValid()) {
+            buffer.data.resize(capacity);
+            const jobject jni_buffer_raw = jni_env->NewDirectByteBuffer(buffer.data.data(), buffer.data.size());
+            buffer.jni_buffer = QAndroidJniObject(jni_buffer_raw);
+            jni_env->DeleteLocalRef(jni_buffer_raw);
+        }
+        const jint result = QAndroidJniObject::callStaticMethod<jint>(JNI_CLASS,
+                                                                     APPICON_METHOD, APPICON_SIGNATURE,
+                                                                     jni_packagename.object<jstring>(),
+                                                                     buffer.jni_buffer.object());
+        if (jni_env->ExceptionCheck()) {
+            jni_env->ExceptionClear();
+            return 0;
+        }
+        return result;
+    };
 
-    jbyte* const jni_iconbytes_p = jni_env->GetByteArrayElements(jni_iconbytes_arr, nullptr);
-    if (!jni_iconbytes_p)
+    jint icon_len = request_into_buffer(std::max(INITIAL_BUFFER_SIZE, buffer.data.size()));
+    // A negative result is the required buffer size
+    if (icon_len < 0)
+        icon_len = request_into_buffer(-icon_len);
+    if (icon_len <= 0)
         return QPixmap();
 
-    QImage image(QImage::fromData(reinterpret_cast<const uchar*>(jni_iconbytes_p), jni_iconbytes_len, APPICON_FMT));
-    jni_env->ReleaseByteArrayElements(jni_iconbytes_arr, jni_iconbytes_p, JNI_ABORT);
-    return QPixmap::fromImage(std::move(image));
+    quint64 content_hash = 0;
+    memcpy(&content_hash, buffer.data.constData(), HEADER_SIZE);
+
+    QMutexLocker lock(&m_mutex);
+
+    // Apps with identical icons share the same decoded pixmap
+    QPixmap pixmap;
+    if (const QPixmap* const cached = m_icons_by_hash.object(content_hash)) {
+        pixmap = *cached;
+    }
+    else {
+        const auto png_data = reinterpret_cast<const uchar*>(buffer.data.constData() + HEADER_SIZE);
+        pixmap = QPixmap::fromImage(QImage::fromData(png_data, icon_len, APPICON_FMT));
+        if (!pixmap.isNull())
+            m_icons_by_hash.insert(content_hash, new QPixmap(pixmap), pixmap_cost_kib(pixmap));
+    }
+
+    if (id == DEFAULT_ICON_ID)
+        m_default_icon = pixmap;
+
+    return pixmap;
 }
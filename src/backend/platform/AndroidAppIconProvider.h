@@ -17,6 +17,9 @@
 
 #pragma once
 
+#include <QCache>
+#include <QMutex>
+#include <QPixmap>
 #include <QQuickImageProvider>
 
 
@@ -25,4 +28,10 @@ public:
     AndroidAppIconProvider();
 
     QPixmap requestPixmap(const QString&, QSize*, const QSize&) override;
+
+private:
+    QMutex m_mutex;
+    // Decoded icons by content hash, the cost is the size in KiB
+    QCache<quint64, QPixmap> m_icons_by_hash;
+    QPixmap m_default_icon;
 };
@@ -13,6 +13,9 @@
 #include <QtAndroidExtras/QAndroidJniObject>
 #include <QUrl>
 
+#include <algorithm>
+#include <vector>
+
 namespace {
 QStringList query_string_array(const char* const method)
 {
@@ -33,6 +36,55 @@ QStringList query_string_array(const char* const method)
 
     return out;
 }
+
+// Returns null if the array could not be created
+jobjectArray new_string_array(QAndroidJniEnvironment& env, const QStringList& strings)
+{
+    jclass stringClass = env->FindClass("java/lang/String");
+    if (!stringClass || env->ExceptionCheck()) {
+        env->ExceptionClear();
+        return nullptr;
+    }
+
+    jobjectArray arr = env->NewObjectArray(strings.size(), stringClass, nullptr);
+    env->DeleteLocalRef(stringClass);
+    for (int i = 0; i < strings.size(); ++i) {
+        QAndroidJniObject jstr = QAndroidJniObject::fromString(strings.at(i));
+        env->SetObjectArrayElement(arr, i, jstr.object<jstring>());
+    }
+    return arr;
+}
+
+constexpr auto EXTERNAL_STORAGE_AUTHORITY = "com.android.externalstorage.documents";
+
+QString uri_encode(const QString& str)
+{
+    return QString::fromLatin1(QUrl::toPercentEncoding(str, "_-!.~'()*"));
+}
+
+// The document ID of a file on shared storage, eg. `primary:Roms/snes`
+QString document_id(const QString& abs_path)
+{
+    const QString most_specific_root = [&abs_path](){
+        QString result = QChar('/');
+        const QStringList all_roots = android::storage_paths();
+        for (const QString& root : all_roots) {
+            if (abs_path.startsWith(root) && result.length() < root.length())
+                result = root;
+        }
+        return result;
+    }();
+    const QDir storage_root(most_specific_root);
+
+    const QString prefix = [&most_specific_root](){
+        if (most_specific_root == android::primary_storage_path())
+            return QStringLiteral("primary:");
+
+        QVector<QStringRef> parts = most_specific_root.splitRef(QChar('/'));
+        return parts.last().toString() + QChar(':');
+    }();
+    return prefix + storage_root.relativeFilePath(abs_path);
+}
 } // namespace
 
 namespace android {
@@ -155,40 +207,84 @@ QString to_content_uri(const QString& path)
     return result_obj.toString();
 }
 
+QString to_archive_member_uri(const QString& archive_path, const QString& member, bool direct)
+{
+    static constexpr auto JNI_METHOD = "toArchiveMemberUri";
+    static constexpr auto JNI_SIGNATURE = "(Ljava/lang/String;Ljava/lang/String;Z)Ljava/lang/String;";
+
+    const QAndroidJniObject jni_path_str = QAndroidJniObject::fromString(archive_path);
+    const QAndroidJniObject jni_member_str = QAndroidJniObject::fromString(member);
+
+    QAndroidJniEnvironment jni_env;
+    const auto result_obj = QAndroidJniObject::callStaticObjectMethod(
+        jni_classname(),
+        JNI_METHOD,
+        JNI_SIGNATURE,
+        jni_path_str.object<jstring>(),
+        jni_member_str.object<jstring>(),
+        static_cast<jboolean>(direct));
+    return result_obj.toString();
+}
+
 QString to_document_uri(const QString& path)
 {
     const QFileInfo finfo(path);
-    const QString abs_path = finfo.absoluteFilePath();
-    const QString abs_dir = finfo.absolutePath();
+    const QString rel_dir = document_id(finfo.absolutePath());
+    const QString rel_path = document_id(finfo.absoluteFilePath());
 
-    const QString most_specific_root = [&abs_path](){
-        QString result = QChar('/');
-        const QStringList all_roots = storage_paths();
-        for (const QString& root : all_roots) {
-            if (abs_path.startsWith(root) && result.length() < root.length())
-                result = root;
-        }
-        return result;
-    }();
-    const QDir storage_root(most_specific_root);
+    const QString uri_str = QStringLiteral("content://%1/tree/%2/document/%3")
+        .arg(QLatin1String(EXTERNAL_STORAGE_AUTHORITY), uri_encode(rel_dir), uri_encode(rel_path));
 
-    const QString prefix = [&most_specific_root](){
-        if (most_specific_root == primary_storage_path())
-            return QStringLiteral("primary:");
+    return uri_str;
+}
 
-        QVector<QStringRef> parts = most_specific_root.splitRef(QChar('/'));
-        return parts.last().toString() + QChar(':');
-    }();
-    const QString rel_dir = prefix + storage_root.relativeFilePath(abs_dir);
-    const QString rel_path = prefix + storage_root.relativeFilePath(abs_path);
+QString to_granted_document_uri(const QString& path)
+{
+    const QString doc_id = document_id(QFileInfo(path).absoluteFilePath());
+
+    // NOTE: for tree URIs, the path is `/tree/<tree document id>`
+    const QString tree_prefix = QStringLiteral("/tree/");
+    for (const QString& granted : granted_paths()) {
+        if (!granted.startsWith(tree_prefix))
+            continue;
+
+        const QString tree_id = granted.mid(tree_prefix.length());
+        const bool is_inside = doc_id == tree_id
+            || (doc_id.startsWith(tree_id) && (tree_id.endsWith(QChar(':')) || doc_id.at(tree_id.length()) == QChar('/')));
+        if (is_inside) {
+            return QStringLiteral("content://%1/tree/%2/document/%3")
+                .arg(QLatin1String(EXTERNAL_STORAGE_AUTHORITY), uri_encode(tree_id), uri_encode(doc_id));
+        }
+    }
+    return {};
+}
 
-    const auto uri_encode = [](const QString& path) {
-        return QUrl::toPercentEncoding(path, "_-!.~'()*");
-    };
-    const QString uri_str = QStringLiteral("content://com.android.externalstorage.documents/tree/%1/document/%2")
-        .arg(uri_encode(rel_dir), uri_encode(rel_path));
+std::vector<int> open_document_fds(const QStringList& uris)
+{
+    std::vector<int> fds(static_cast<size_t>(uris.size()), -1);
 
-    return uri_str;
+    QAndroidJniEnvironment jni_env;
+    jobjectArray jni_uris = new_string_array(jni_env, uris);
+    if (!jni_uris)
+        return fds;
+
+    static constexpr auto JNI_METHOD = "openDocumentFds";
+    static constexpr auto JNI_SIGNATURE = "([Ljava/lang/String;)[I";
+    const auto result_obj = QAndroidJniObject::callStaticObjectMethod(jni_classname(), JNI_METHOD, JNI_SIGNATURE, jni_uris);
+    jni_env->DeleteLocalRef(jni_uris);
+
+    if (jni_env->ExceptionCheck()) {
+        jni_env->ExceptionClear();
+        return fds;
+    }
+    const auto jni_fds = result_obj.object<jintArray>();
+    if (!jni_fds)
+        return fds;
+
+    const jsize fd_count = std::min<jsize>(jni_env->GetArrayLength(jni_fds), uris.size());
+    static_assert(sizeof(jint) == sizeof(int), "");
+    jni_env->GetIntArrayRegion(jni_fds, 0, fd_count, reinterpret_cast<jint*>(fds.data()));
+    return fds;
 }
 
 /* ------------------------- 新增：应用内解析并启动（支持 --display） ------------------------- */
@@ -198,16 +294,10 @@ QString start_activity_from_am_args(const QStringList& args)
     QAndroidJniEnvironment env;
 
     // 构造 Java String[] 参数
-    jclass stringClass = env->FindClass("java/lang/String");
-    if (!stringClass || env->ExceptionCheck()) {
-        env->ExceptionClear();
+    jobjectArray jArgs = new_string_array(env, args);
+    if (!jArgs) {
         return QStringLiteral("JNI: java/lang/String not found");
     }
-    jobjectArray jArgs = env->NewObjectArray(args.size(), stringClass, nullptr);
-    for (int i = 0; i < args.size(); ++i) {
-        QAndroidJniObject jstr = QAndroidJniObject::fromString(args.at(i));
-        env->SetObjectArrayElement(jArgs, i, jstr.object<jstring>());
-    }
 
     // 调用：org.pegasus_frontend.android.AndroidHelpers.startActivityFromAmArgs(String[]) : String
     QAndroidJniObject res = QAndroidJniObject::callStaticObjectMethod(
@@ -216,6 +306,7 @@ QString start_activity_from_am_args(const QStringList& args)
         "([Ljava/lang/String;)Ljava/lang/String;",
         jArgs
     );
+    env->DeleteLocalRef(jArgs);
 
     if (env->ExceptionCheck()) {
         env->ExceptionDescribe();
@@ -226,4 +317,101 @@ QString start_activity_from_am_args(const QStringList& args)
     return res.isValid() ? res.toString() : QString();
 }
 
+void prepare_activity_from_am_args(const QStringList& args)
+{
+    QAndroidJniEnvironment env;
+
+    jobjectArray jArgs = new_string_array(env, args);
+    if (!jArgs) {
+        return;
+    }
+
+    // 调用：org.pegasus_frontend.android.AndroidHelpers.prepareActivityFromAmArgs(String[]) : void
+    QAndroidJniObject::callStaticMethod<void>(
+        "org/pegasus_frontend/android/AndroidHelpers",
+        "prepareActivityFromAmArgs",
+        "([Ljava/lang/String;)V",
+        jArgs
+    );
+    env->DeleteLocalRef(jArgs);
+
+    if (env->ExceptionCheck()) {
+        env->ExceptionDescribe();
+        env->ExceptionClear();
+    }
+}
+
+QStringList helper_metrics_report()
+{
+    // Must match the entry order in Metrics.java
+    static const char* const ENTRY_NAMES[] = {
+        "appList",
+        "appIcon",
+        "queryBattery",
+        "sdcardPaths",
+        "launchAmCommand",
+        "startActivityFromAmArgs",
+        "toContentUri",
+        "appUsage",
+        "prepareLaunch",
+        "gamepadAxes",
+        "openDocumentFds",
+    };
+    static constexpr jlong SNAPSHOT_VERSION = 1;
+    static constexpr jsize HEADER_LEN = 3;
+    static constexpr jsize ENTRY_FIELDS = 4; // calls, failures, total ns, max ns
+
+    static constexpr auto JNI_METHOD = "helperMetrics";
+    static constexpr auto JNI_SIGNATURE = "()[J";
+
+    QAndroidJniEnvironment jni_env;
+    const auto result_obj = QAndroidJniObject::callStaticObjectMethod(jni_classname(), JNI_METHOD, JNI_SIGNATURE);
+    const auto jni_arr = result_obj.object<jlongArray>();
+    if (!jni_arr)
+        return {};
+
+    const jsize len = jni_env->GetArrayLength(jni_arr);
+    std::vector<jlong> values(static_cast<size_t>(len));
+    jni_env->GetLongArrayRegion(jni_arr, 0, len, values.data());
+
+    if (len < HEADER_LEN || values[0] != SNAPSHOT_VERSION)
+        return {};
+
+    const jsize entry_count = std::min<jsize>(values[1], sizeof(ENTRY_NAMES) / sizeof(ENTRY_NAMES[0]));
+    const jsize bucket_count = values[2];
+    const jsize entry_len = ENTRY_FIELDS + bucket_count;
+    if (len < HEADER_LEN + entry_count * entry_len)
+        return {};
+
+    QStringList out;
+    for (jsize entry = 0; entry < entry_count; entry++) {
+        const jlong* const fields = values.data() + HEADER_LEN + entry * entry_len;
+        const jlong calls = fields[0];
+        if (calls <= 0)
+            continue;
+
+        // The histogram is too long for a log line, report its p50 and p99 upper bounds
+        const auto percentile_us = [fields, calls, bucket_count](double p) {
+            const jlong target = static_cast<jlong>(calls * p);
+            jlong sum = 0;
+            for (jsize bucket = 0; bucket < bucket_count; bucket++) {
+                sum += fields[ENTRY_FIELDS + bucket];
+                if (sum > target)
+                    return jlong(1) << bucket;
+            }
+            return jlong(1) << bucket_count;
+        };
+
+        out.append(QStringLiteral("%1: %2 calls, %3 failed, avg %4 us, max %5 us, p50 < %6 us, p99 < %7 us")
+            .arg(QLatin1String(ENTRY_NAMES[entry]))
+            .arg(calls)
+            .arg(fields[1])
+            .arg(fields[2] / calls / 1000)
+            .arg(fields[3] / 1000)
+            .arg(percentile_us(0.5))
+            .arg(percentile_us(0.99)));
+    }
+    return out;
+}
+
 } // namespace android
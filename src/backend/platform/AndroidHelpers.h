@@ -6,6 +6,7 @@
 #include <QString>
 #include <QStringList>   // 新增：需要 QStringList
 #include <functional>    // 新增：request_saf_permission 的 std::function
+#include <vector>
 
 namespace android {
 
@@ -22,9 +23,29 @@ void request_saf_permission(const std::function<void()>&);
 QString run_am_call(const QStringList&);
 QString to_content_uri(const QString&);
 QString to_document_uri(const QString&);
+// content:// URI of the file inside one of the granted document trees,
+// or an empty string if none of them contains it
+QString to_granted_document_uri(const QString& path);
+// Opens the content:// documents for reading and returns their file descriptors
+// (-1 on failure) in the same order, in one call to the Java side.
+// The caller owns every fd that is not -1 and has to close it, eg. by passing
+// it to QFile::open(int, ..., QFileDevice::AutoCloseHandle), or with close().
+std::vector<int> open_document_fds(const QStringList& uris);
+// content:// URI of a file inside a ZIP archive, served without extraction;
+// with an empty member name, the largest file of the archive is used.
+// With direct, a stored (uncompressed) member is served as a part of the archive
+// file, which only works with apps that open it with openAssetFileDescriptor().
+QString to_archive_member_uri(const QString& archive_path, const QString& member, bool direct = false);
 
 // 新增接口：把 "am start" 的参数在应用内解析并启动（支持 --display）
 // 成功返回空串；失败返回错误字符串（可回退到 run_am_call）
 QString start_activity_from_am_args(const QStringList& args);
+// 在后台预先准备上面的启动（解析 Intent、选择显示器、解析目标 Activity），
+// 之后用相同参数调用 start_activity_from_am_args 时直接使用准备好的结果
+void prepare_activity_from_am_args(const QStringList& args);
+
+// Call counts and latencies of the Java helper entry points (Metrics.java),
+// one human readable line per entry point
+QStringList helper_metrics_report();
 
 } // namespace android
@@ -0,0 +1,137 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+#include "AndroidNativeEvents.h"
+
+#include "Log.h"
+
+#include <QtAndroidExtras/QAndroidJniEnvironment>
+#include <QtAndroidExtras/QAndroidJniObject>
+
+
+namespace {
+constexpr auto BRIDGE_CLASS = "org/pegasus_frontend/android/NativeBridge";
+constexpr auto GAMEPAD_INPUT_CLASS = "org/pegasus_frontend/android/GamepadInput";
+
+QString thermal_status_name(int status)
+{
+    // PowerManager.THERMAL_STATUS_*
+    static const char* const NAMES[] = {
+        "none",
+        "light",
+        "moderate",
+        "severe",
+        "critical",
+        "emergency",
+        "shutdown",
+    };
+    constexpr int NAME_COUNT = sizeof(NAMES) / sizeof(NAMES[0]);
+    return 0 <= status && status < NAME_COUNT
+        ? QString(QLatin1String(NAMES[status]))
+        : QStringLiteral("unknown");
+}
+} // namespace
+
+
+namespace android {
+
+NativeEvents& NativeEvents::instance()
+{
+    static NativeEvents instance;
+    return instance;
+}
+
+NativeEvents::NativeEvents(QObject* parent)
+    : QObject(parent)
+    , m_registered(false)
+    , m_thermal_status(-1)
+    , m_yielding(false)
+{}
+
+void JNICALL NativeEvents::jniPowerStateChanged(JNIEnv*, jclass, jint thermal_status, jboolean yielding)
+{
+    NativeEvents* const target = &instance();
+    const bool yielding_bool = yielding == JNI_TRUE;
+    QMetaObject::invokeMethod(target, [target, thermal_status, yielding_bool]{
+        target->onPowerStateChanged(thermal_status, yielding_bool);
+    }, Qt::QueuedConnection);
+}
+
+void JNICALL NativeEvents::jniGamepadFrame(JNIEnv*, jclass)
+{
+    NativeEvents* const target = &instance();
+    QMetaObject::invokeMethod(target, [target]{
+        emit target->gamepadFrame();
+    }, Qt::QueuedConnection);
+}
+
+bool NativeEvents::requestGamepadFrame()
+{
+    if (!m_registered)
+        return false;
+
+    return QAndroidJniObject::callStaticMethod<jboolean>(GAMEPAD_INPUT_CLASS, "requestFrame", "()Z");
+}
+
+void NativeEvents::onPowerStateChanged(int thermal_status, bool yielding)
+{
+    if (m_thermal_status != thermal_status) {
+        Log::info(LOGMSG("Power"), LOGMSG("Thermal status changed from %1 to %2")
+            .arg(thermal_status_name(m_thermal_status), thermal_status_name(thermal_status)));
+        m_thermal_status = thermal_status;
+        emit thermalStatusChanged();
+    }
+    if (m_yielding != yielding) {
+        Log::info(LOGMSG("Power"), yielding
+            ? LOGMSG("Yielding to the launched game")
+            : LOGMSG("Stopped yielding, the frontend is in front again"));
+        m_yielding = yielding;
+        emit yieldingChanged();
+    }
+}
+
+bool NativeEvents::registerNatives()
+{
+    if (m_registered)
+        return true;
+
+    static const JNINativeMethod METHODS[] = {
+        { "powerStateChanged", "(IZ)V", reinterpret_cast<void*>(jniPowerStateChanged) },
+        { "gamepadFrame", "()V", reinterpret_cast<void*>(jniGamepadFrame) },
+    };
+
+    QAndroidJniEnvironment jni_env;
+    const auto jni_class = QAndroidJniObject::callStaticObjectMethod(BRIDGE_CLASS, "bridgeClass", "()Ljava/lang/Class;");
+    if (!jni_class.isValid()) {
+        jni_env->ExceptionClear();
+        Log::warning(LOGMSG("Java bridge class not found, native callbacks disabled"));
+        return false;
+    }
+
+    const jint method_count = sizeof(METHODS) / sizeof(METHODS[0]);
+    if (jni_env->RegisterNatives(jni_class.object<jclass>(), METHODS, method_count) != JNI_OK) {
+        jni_env->ExceptionClear();
+        Log::warning(LOGMSG("Failed to register the native callbacks of the Java bridge"));
+        return false;
+    }
+
+    QAndroidJniObject::callStaticMethod<void>(BRIDGE_CLASS, "onNativesRegistered");
+    m_registered = true;
+    return true;
+}
+
+} // namespace android
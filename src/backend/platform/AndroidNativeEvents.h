@@ -0,0 +1,68 @@
+// Pegasus Frontend
+// Copyright (C) 2017-2021  Mátyás Mustoha
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see <http://www.gnu.org/licenses/>.
+
+
+#pragma once
+
+#include <QObject>
+#include <jni.h>
+
+
+namespace android {
+
+// Receives the events the Java side pushes to native code (NativeBridge.java).
+// The Java callbacks run on Android threads; the signals are emitted
+// on the thread of this object, which is the main thread.
+class NativeEvents : public QObject {
+    Q_OBJECT
+
+public:
+    static NativeEvents& instance();
+
+    // Registers the native methods of the Java side; safe to call more than once.
+    // Returns false if that failed, in which case no signals will be emitted.
+    bool registerNatives();
+    bool isRegistered() const { return m_registered; }
+
+    // PowerManager.THERMAL_STATUS_* values, or -1 if unknown (before Android 10)
+    int thermalStatus() const { return m_thermal_status; }
+    // True while a launched game is starting up or running, see PowerState.java
+    bool yielding() const { return m_yielding; }
+
+    // Asks for a gamepadFrame() signal on the next vsync, see GamepadInput.java.
+    // Returns false if none will come, eg. when the natives aren't registered.
+    bool requestGamepadFrame();
+
+signals:
+    void thermalStatusChanged();
+    void yieldingChanged();
+    void gamepadFrame();
+
+private:
+    explicit NativeEvents(QObject* parent = nullptr);
+
+    bool m_registered;
+    int m_thermal_status;
+    bool m_yielding;
+
+    void onPowerStateChanged(int thermal_status, bool yielding);
+
+    // The native methods of NativeBridge.java
+    static void JNICALL jniPowerStateChanged(JNIEnv*, jclass, jint, jboolean);
+    static void JNICALL jniGamepadFrame(JNIEnv*, jclass);
+};
+
+} // namespace android
@@ -20,9 +20,11 @@ else {
 android {
     HEADERS += \
         $$PWD/AndroidAppIconProvider.h \
-        $$PWD/AndroidHelpers.h
+        $$PWD/AndroidHelpers.h \
+        $$PWD/AndroidNativeEvents.h
 
     SOURCES += \
         $$PWD/AndroidAppIconProvider.cpp \
-        $$PWD/AndroidHelpers.cpp
+        $$PWD/AndroidHelpers.cpp \
+        $$PWD/AndroidNativeEvents.cpp
 }
@@ -21,13 +21,18 @@
 #include "model/gaming/Assets.h"
 #include "model/gaming/Collection.h"
 #include "model/gaming/Game.h"
+#include "model/gaming/GameFile.h"
 #include "providers/SearchContext.h"
 #include "providers/android_apps/AndroidAppsMetadata.h"
 
+#include <QDateTime>
 #include <QFileInfo>
 #include <QtAndroidExtras/QAndroidJniEnvironment>
 #include <QtAndroidExtras/QAndroidJniObject>
 
+#include <algorithm>
+#include <vector>
+
 
 namespace {
 HashMap<QString, model::Game*> find_apps_for(model::Collection& collection, providers::SearchContext& sctx)
@@ -39,6 +44,8 @@ HashMap<QString, model::Game*> find_apps_for(model::Collection& collection, prov
     constexpr auto APP_PACKAGE = "packageName";
     constexpr auto APP_LAUNCH_ACT = "launchAction";
     constexpr auto APP_LAUNCH_CPT = "launchComponent";
+    constexpr auto APP_ICON_ID = "iconId";
+    constexpr auto APP_USER_SERIAL = "userSerial";
 
 
     HashMap<QString, model::Game*> app_game_map;
@@ -55,6 +62,9 @@ HashMap<QString, model::Game*> find_apps_for(model::Collection& collection, prov
         const QString package = jni_app.callObjectMethod<jstring>(APP_PACKAGE).toString();
         const QString action = jni_app.callObjectMethod<jstring>(APP_LAUNCH_ACT).toString();
         const QString component = jni_app.callObjectMethod<jstring>(APP_LAUNCH_CPT).toString();
+        const QString icon_id = jni_app.callObjectMethod<jstring>(APP_ICON_ID).toString();
+        // NOTE: this is the profile's serial number, not the user id `am --user` would expect
+        const jlong user_serial = jni_app.callMethod<jlong>(APP_USER_SERIAL);
 
         const QString game_uri = QStringLiteral("android:") + package;
         model::Game* game_ptr = sctx.game_by_uri(game_uri);
@@ -64,10 +74,11 @@ HashMap<QString, model::Game*> find_apps_for(model::Collection& collection, prov
         }
         app_game_map.emplace(package, game_ptr);
 
-        const QString icon_uri = QStringLiteral("image://androidicons/") + package;
+        // NOTE: apps with the same icon may share the same ID, and so the same image
+        const QString icon_uri = QStringLiteral("image://androidicons/") + icon_id;
         (*game_ptr)
             .setTitle(appname)
-            .setLaunchCmd(QStringLiteral("am start --user 0 -a %1 -n %2").arg(action, component))
+            .setLaunchCmd(QStringLiteral("am start --pegasus-user-serial %3 -a %1 -n %2").arg(action, component).arg(user_serial))
             .assetsMut()
             .add_uri(AssetType::BOX_FRONT, icon_uri)
             .add_uri(AssetType::UI_TILE, icon_uri);
@@ -77,6 +88,66 @@ HashMap<QString, model::Game*> find_apps_for(model::Collection& collection, prov
 }
 
 
+// The play time of apps can't be measured by tracking their process,
+// so it comes from the usage stats of the system, all apps at once
+void fill_playtime_from_usage_stats(
+    const HashMap<QString, model::Game*>& app_game_map,
+    providers::SearchContext& sctx,
+    const QString& log_tag)
+{
+    constexpr auto JNI_CLASS = "org/pegasus_frontend/android/MainActivity";
+    constexpr auto USAGE_METHOD = "appUsage";
+    constexpr auto USAGE_SIGNATURE = "()Lorg/pegasus_frontend/android/AppUsage;";
+    constexpr auto USAGE_PACKAGES = "packages";
+    constexpr auto USAGE_PACKAGES_SIGNATURE = "()[Ljava/lang/String;";
+    constexpr auto USAGE_VALUES = "values";
+    constexpr auto USAGE_VALUES_SIGNATURE = "()[J";
+
+    QAndroidJniEnvironment jni_env;
+    const auto jni_usage = QAndroidJniObject::callStaticObjectMethod(JNI_CLASS, USAGE_METHOD, USAGE_SIGNATURE);
+    if (!jni_usage.isValid())
+        return;
+
+    const auto jni_packages_raw = jni_usage.callObjectMethod(USAGE_PACKAGES, USAGE_PACKAGES_SIGNATURE);
+    const auto jni_values_raw = jni_usage.callObjectMethod(USAGE_VALUES, USAGE_VALUES_SIGNATURE);
+    const auto jni_packages = jni_packages_raw.object<jobjectArray>();
+    const auto jni_values = jni_values_raw.object<jlongArray>();
+    if (!jni_packages || !jni_values)
+        return;
+
+    const jsize package_count = std::min(
+        jni_env->GetArrayLength(jni_packages),
+        jni_env->GetArrayLength(jni_values) / 2);
+    std::vector<jlong> values(static_cast<size_t>(package_count * 2));
+    jni_env->GetLongArrayRegion(jni_values, 0, package_count * 2, values.data());
+
+    size_t updated = 0;
+    for (jsize i = 0; i < package_count; i++) {
+        const qint64 foreground_ms = values[i * 2];
+        const qint64 last_used_ms = values[i * 2 + 1];
+        if (foreground_ms <= 0)
+            continue;
+
+        // NOTE: QAndroidJniObject takes a global reference, the local one has to be freed here
+        const jobject jni_package_raw = jni_env->GetObjectArrayElement(jni_packages, i);
+        const QString package = QAndroidJniObject(jni_package_raw).toString();
+        jni_env->DeleteLocalRef(jni_package_raw);
+        if (app_game_map.find(package) == app_game_map.cend())
+            continue;
+
+        model::GameFile* const gamefile = sctx.gamefile_by_uri(QStringLiteral("android:") + package);
+        if (!gamefile)
+            continue;
+
+        // NOTE: the play count is left to the launch tracking of Pegasus
+        gamefile->update_playstats(0, foreground_ms / 1000, QDateTime::fromMSecsSinceEpoch(last_used_ms));
+        updated++;
+    }
+
+    Log::info(log_tag, LOGMSG("Play time of %1 apps loaded from the usage stats").arg(updated));
+}
+
+
 void fill_metadata_from_cache(
     HashMap<QString, model::Game*>& app_game_map,
     const providers::android::MetadataHelper& metahelper)
@@ -138,6 +209,7 @@ Provider& AndroidAppsProvider::run(SearchContext& sctx)
     if (app_game_map.empty())
         return *this;
 
+    fill_playtime_from_usage_stats(app_game_map, sctx, display_name());
     fill_metadata_from_cache(app_game_map, m_metahelper);
     fill_metadata_from_network(app_game_map, m_metahelper, sctx);
     return *this;
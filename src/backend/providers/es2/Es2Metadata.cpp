@@ -26,6 +26,9 @@
 #include "providers/SearchContext.h"
 #include "providers/es2/Es2Systems.h"
 #include "utils/PathTools.h"
+#ifdef Q_OS_ANDROID
+#include "platform/AndroidHelpers.h"
+#endif
 
 #include <QDir>
 #include <QDirIterator>
@@ -34,10 +37,14 @@
 #include <QStringBuilder>
 #include <QXmlStreamReader>
 
+#ifdef Q_OS_ANDROID
+#include <unistd.h>
+#endif
+
 
 namespace {
 
-QString find_gamelist_xml(const std::vector<QString>& possible_config_dirs, const QDir& system_dir, const QString& system_name)
+std::vector<QString> possible_gamelist_xmls(const std::vector<QString>& possible_config_dirs, const QDir& system_dir, const QString& system_name)
 {
     const QString GAMELISTFILE = QStringLiteral("/gamelist.xml");
 
@@ -52,6 +59,11 @@ QString find_gamelist_xml(const std::vector<QString>& possible_config_dirs, cons
         }
     }
 
+    return possible_files;
+}
+
+QString find_gamelist_xml(const std::vector<QString>& possible_files)
+{
     for (const auto& path : possible_files) {
         if (QFileInfo::exists(path))
             return path;
@@ -60,6 +72,41 @@ QString find_gamelist_xml(const std::vector<QString>& possible_config_dirs, cons
     return {};
 }
 
+#ifdef Q_OS_ANDROID
+// Without all files access, the files of other apps on the shared storage
+// can't be opened by path, only through the document trees the user has granted.
+// Opens the first of the files that can be reached that way, and returns its path.
+QString open_granted_gamelist_xml(const std::vector<QString>& possible_files, QFile& xml_file)
+{
+    std::vector<QString> paths;
+    QStringList uris;
+    for (const QString& path : possible_files) {
+        QString uri = android::to_granted_document_uri(path);
+        if (!uri.isEmpty()) {
+            paths.emplace_back(path);
+            uris.append(std::move(uri));
+        }
+    }
+    if (uris.isEmpty())
+        return {};
+
+    QString found_path;
+    const std::vector<int> fds = android::open_document_fds(uris);
+    for (size_t i = 0; i < fds.size(); i++) {
+        if (fds[i] < 0)
+            continue;
+
+        // NOTE: with AutoCloseHandle, the QFile takes over the fd,
+        //       all the others are closed here
+        if (found_path.isEmpty() && xml_file.open(fds[i], QIODevice::ReadOnly, QFileDevice::AutoCloseHandle))
+            found_path = paths[i];
+        else
+            ::close(fds[i]);
+    }
+    return found_path;
+}
+#endif
+
 QFileInfo shell_to_finfo(const QDir& base_dir, const QString& shell_filepath)
 {
     if (shell_filepath.isEmpty())
@@ -210,15 +257,21 @@ void Metadata::find_metadata_for(const SystemEntry& sysentry, const providers::S
     }
 
     const QDir xml_dir(sysentry.path);
-    const QString gamelist_path = find_gamelist_xml(m_config_dirs, xml_dir, sysentry.shortname);
+    const std::vector<QString> possible_files = possible_gamelist_xmls(m_config_dirs, xml_dir, sysentry.shortname);
+    QString gamelist_path = find_gamelist_xml(possible_files);
+
+    QFile xml_file(gamelist_path);
+#ifdef Q_OS_ANDROID
+    if (gamelist_path.isEmpty())
+        gamelist_path = open_granted_gamelist_xml(possible_files, xml_file);
+#endif
     if (gamelist_path.isEmpty()) {
         Log::warning(m_log_tag, LOGMSG("No gamelist file found for system `%1`").arg(sysentry.shortname));
         return;
     }
     Log::info(m_log_tag, LOGMSG("Found `%1`").arg(gamelist_path));
 
-    QFile xml_file(gamelist_path);
-    if (!xml_file.open(QIODevice::ReadOnly)) {
+    if (!xml_file.isOpen() && !xml_file.open(QIODevice::ReadOnly)) {
         Log::error(m_log_tag, LOGMSG("Could not open `%1`").arg(gamelist_path));
         return;
     }